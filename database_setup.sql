@@ -5,10 +5,15 @@
 CREATE DATABASE IF NOT EXISTS regions;
 USE regions;
 
+-- Schema version - the plugin migrates older layouts in place on startup
+CREATE TABLE IF NOT EXISTS schema_version (
+    version INT NOT NULL
+);
+
 -- Regions table - stores region data and coordinates
 CREATE TABLE IF NOT EXISTS regions (
-    name VARCHAR(64) PRIMARY KEY,
-    owner VARCHAR(36) NOT NULL,
+    region_id INT AUTO_INCREMENT PRIMARY KEY,
+    name VARCHAR(64) NOT NULL UNIQUE,
     world VARCHAR(64) NOT NULL,
     corner1_x INT NOT NULL,
     corner1_y INT NOT NULL,
@@ -16,27 +21,50 @@ CREATE TABLE IF NOT EXISTS regions (
     corner2_x INT NOT NULL,
     corner2_y INT NOT NULL,
     corner2_z INT NOT NULL,
-    created_at BIGINT NOT NULL
+    created_at BIGINT NOT NULL,
+    priority INT NOT NULL DEFAULT 0,
+    INDEX idx_regions_world (world)
 );
 
 -- Region whitelist table - stores player whitelist mappings
 CREATE TABLE IF NOT EXISTS region_whitelist (
-    region_name VARCHAR(64) NOT NULL,
-    player_uuid VARCHAR(36) NOT NULL,
-    PRIMARY KEY (region_name, player_uuid),
-    FOREIGN KEY (region_name) REFERENCES regions(name) ON DELETE CASCADE
+    region_id INT NOT NULL,
+    player_uuid BINARY(16) NOT NULL,
+    PRIMARY KEY (region_id, player_uuid),
+    INDEX idx_region_whitelist_player (player_uuid),
+    FOREIGN KEY (region_id) REFERENCES regions(region_id) ON DELETE CASCADE
 );
 
 -- Region flags table - stores flag state configurations
 CREATE TABLE IF NOT EXISTS region_flags (
-    region_name VARCHAR(64) NOT NULL,
+    region_id INT NOT NULL,
     flag_name VARCHAR(32) NOT NULL,
     flag_state VARCHAR(16) NOT NULL,
-    PRIMARY KEY (region_name, flag_name),
-    FOREIGN KEY (region_name) REFERENCES regions(name) ON DELETE CASCADE
+    PRIMARY KEY (region_id, flag_name),
+    FOREIGN KEY (region_id) REFERENCES regions(region_id) ON DELETE CASCADE
+);
+
+-- Data version - bumped by every write, used to validate the startup snapshot
+CREATE TABLE IF NOT EXISTS data_version (
+    version BIGINT NOT NULL
 );
 
+INSERT INTO data_version (version) SELECT 0 FROM DUAL WHERE NOT EXISTS (SELECT 1 FROM data_version);
+
+-- Change log - one row per stored change, polled by servers sharing this database
+CREATE TABLE IF NOT EXISTS region_changes (
+    seq BIGINT AUTO_INCREMENT PRIMARY KEY,
+    node_id VARCHAR(36) NOT NULL,
+    change_type VARCHAR(16) NOT NULL,
+    region_name VARCHAR(64) NOT NULL,
+    new_name VARCHAR(64),
+    created_at BIGINT NOT NULL,
+    INDEX idx_region_changes_created (created_at)
+);
+
+INSERT INTO schema_version (version) SELECT 5 FROM DUAL WHERE NOT EXISTS (SELECT 1 FROM schema_version);
+
 
 
 -- Show the created tables
-SHOW TABLES; 
\ No newline at end of file
+SHOW TABLES; 
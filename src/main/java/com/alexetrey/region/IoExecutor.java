@@ -0,0 +1,114 @@
+package com.alexetrey.region;
+
+import org.bukkit.entity.Entity;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs blocking work (database reads, player name lookups, file access) on a pool of
+ * {@code maxConcurrent} platform threads. Not virtual threads: the SQLite and MySQL drivers block
+ * inside synchronized methods and native calls, which would pin their carrier threads. Each task gets {@code timeoutMillis}
+ * from submission; after that its future fails and the thread is interrupted. Use
+ * {@link #mainThread()} or {@link #on(Entity)} to continue on a server thread.
+ */
+public class IoExecutor {
+    private final RegionPlugin plugin;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final Executor mainThread;
+
+    public IoExecutor(RegionPlugin plugin, int maxConcurrent, long timeoutMillis) {
+        this.plugin = plugin;
+        AtomicInteger threads = new AtomicInteger();
+        int size = Math.max(1, maxConcurrent);
+        this.executor = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "Region-IO-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timeoutMillis = timeoutMillis;
+        this.mainThread = plugin::runSync;
+    }
+
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> running;
+        try {
+            running = executor.submit(() -> run(task, result));
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((value, error) -> {
+            if (error instanceof TimeoutException) {
+                timeouts.increment();
+                running.cancel(true);
+                // Drops it from the queue if it never started.
+                executor.purge();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return an executor for {@code thenAcceptAsync} and friends that runs on the global region
+     *         thread (the main thread outside Folia)
+     */
+    public Executor mainThread() {
+        return mainThread;
+    }
+
+    /**
+     * @return an executor that runs on the thread owning {@code entity}, for continuations that
+     *         message a player or open their inventory
+     */
+    public Executor on(Entity entity) {
+        return task -> plugin.runFor(entity, task);
+    }
+
+    public void describe(Map<String, String> stats) {
+        stats.put("I/O tasks", executor.getActiveCount() + " running, " + executor.getQueue().size() + " waiting, "
+            + completed.sum() + " done, " + timeouts.sum() + " timed out");
+    }
+
+    /**
+     * Lets running tasks finish for up to {@code timeoutSeconds}; nothing new is accepted.
+     */
+    public void shutdown(long timeoutSeconds) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out waiting for I/O tasks to finish");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> void run(Callable<T> task, CompletableFuture<T> result) {
+        try {
+            if (!result.isDone()) {
+                result.complete(task.call());
+            }
+        } catch (Throwable t) {
+            result.completeExceptionally(t);
+        } finally {
+            completed.increment();
+        }
+    }
+}
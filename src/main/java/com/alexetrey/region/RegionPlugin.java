@@ -1,27 +1,40 @@
 package com.alexetrey.region;
 
 import org.bukkit.plugin.java.JavaPlugin;
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
 import com.alexetrey.region.managers.RegionManager;
+import com.alexetrey.region.managers.SessionManager;
+import com.alexetrey.region.managers.SyncManager;
 import com.alexetrey.region.managers.WandManager;
 import com.alexetrey.region.commands.RegionCommand;
+import com.alexetrey.region.listeners.EnvironmentListener;
 import com.alexetrey.region.listeners.RegionListener;
 import com.alexetrey.region.listeners.WandListener;
 import com.alexetrey.region.gui.GUIManager;
+import com.alexetrey.region.storage.CircuitBreaker;
+import com.alexetrey.region.storage.GuardedRegionStore;
+import com.alexetrey.region.storage.InMemoryRegionStore;
+import com.alexetrey.region.storage.MySQLRegionStore;
+import com.alexetrey.region.storage.RegionStore;
+import com.alexetrey.region.storage.SQLiteRegionStore;
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
 import fr.minuskube.inv.InventoryManager;
 import fr.minuskube.inv.SmartInvsPlugin;
 
-import java.sql.Connection;
-import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
 
 public class RegionPlugin extends JavaPlugin {
     private static RegionPlugin instance;
-    private HikariDataSource dataSource;
+    private IoExecutor ioExecutor;
+    private RegionStore regionStore;
+    private CircuitBreaker storageBreaker;
     private RegionManager regionManager;
+    private SyncManager syncManager;
     private WandManager wandManager;
+    private SessionManager sessionManager;
     private GUIManager guiManager;
     private InventoryManager invManager;
 
@@ -29,19 +42,28 @@ public class RegionPlugin extends JavaPlugin {
     public void onEnable() {
         instance = this;
         saveDefaultConfig();
+        ioExecutor = new IoExecutor(this, getConfig().getInt("io.max-concurrent", 8), getConfig().getLong("io.timeout-ms", 10000));
         setupDatabase();
         
-        invManager = new InventoryManager(this);
-        invManager.init();
+        if (isFolia()) {
+            // SmartInvs schedules its menu updates through the Bukkit scheduler, which Folia rejects.
+            getLogger().warning("Running on Folia: menus are disabled, use the /region commands instead");
+        } else {
+            invManager = new InventoryManager(this);
+            invManager.init();
+        }
         
         regionManager = new RegionManager(this);
+        startSync();
         wandManager = new WandManager(this);
+        sessionManager = new SessionManager(this);
         guiManager = new GUIManager(this);
         
         getCommand("region").setExecutor(new RegionCommand(this));
         getCommand("region").setTabCompleter(new RegionCommand(this));
         
         Bukkit.getPluginManager().registerEvents(new RegionListener(this), this);
+        Bukkit.getPluginManager().registerEvents(new EnvironmentListener(this), this);
         Bukkit.getPluginManager().registerEvents(new WandListener(this), this);
         
         getLogger().info("Region plugin enabled");
@@ -49,8 +71,17 @@ public class RegionPlugin extends JavaPlugin {
 
     @Override
     public void onDisable() {
-        if (dataSource != null) {
-            dataSource.close();
+        if (syncManager != null) {
+            syncManager.stop();
+        }
+        if (regionManager != null) {
+            regionManager.shutdown();
+        }
+        if (ioExecutor != null) {
+            ioExecutor.shutdown(5);
+        }
+        if (regionStore != null) {
+            regionStore.close();
         }
         getLogger().info("Region plugin disabled");
     }
@@ -59,73 +90,150 @@ public class RegionPlugin extends JavaPlugin {
         FileConfiguration config = getConfig();
         String storageType = config.getString("storage.type", "sqlite");
         
-        if ("mysql".equalsIgnoreCase(storageType)) {
-            setupMySQL(config);
+        RegionStore store = switch (storageType.toLowerCase()) {
+            case "mysql" -> new MySQLRegionStore(config, getLogger());
+            case "memory" -> new InMemoryRegionStore();
+            default -> new SQLiteRegionStore(config, getLogger());
+        };
+        
+        storageBreaker = new CircuitBreaker(config.getInt("storage.breaker.failure-threshold", 3),
+            config.getLong("storage.breaker.open-seconds", 30) * 1000, this::onStorageHealthChanged);
+        regionStore = new GuardedRegionStore(store, storageBreaker);
+    }
+
+    private void onStorageHealthChanged(boolean available, String reason) {
+        String message;
+        if (available) {
+            getLogger().info("Storage is available again");
+            message = "§a[Region] Storage is available again; queued region changes are being saved.";
         } else {
-            setupSQLite();
+            getLogger().severe("Storage is unavailable, queueing region changes on disk: " + reason);
+            message = "§c[Region] Storage is unavailable! Region changes are queued until it is back.";
+        }
+        
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            runFor(player, () -> {
+                if (player.hasPermission("region.stats")) {
+                    player.sendMessage(message);
+                }
+            });
         }
     }
-    
-    private void setupMySQL(FileConfiguration config) {
-        String host = config.getString("mysql.host", "localhost");
-        int port = config.getInt("mysql.port", 3306);
-        String database = config.getString("mysql.database", "regions");
-        String user = config.getString("mysql.user", "root");
-        String password = config.getString("mysql.password", "");
-
-        getLogger().info("Attempting to connect to MySQL database:");
-        getLogger().info("  Host: " + host);
-        getLogger().info("  Port: " + port);
-        getLogger().info("  Database: " + database);
-        getLogger().info("  User: " + user);
-
-        HikariConfig hikariConfig = new HikariConfig();
-        hikariConfig.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + database + "?useSSL=false&autoReconnect=true");
-        hikariConfig.setUsername(user);
-        hikariConfig.setPassword(password);
-        hikariConfig.setMaximumPoolSize(10);
-        hikariConfig.setPoolName("RegionHikariCP");
 
-        try {
-            dataSource = new HikariDataSource(hikariConfig);
-        } catch (Exception e) {
-            getLogger().severe("Failed to initialize MySQL connection pool!");
-            getLogger().severe("Host: " + host + ", Port: " + port + ", Database: " + database + ", User: " + user);
-            getLogger().severe("Error: " + e.getMessage());
-            throw e;
+    private void startSync() {
+        if (!getConfig().getBoolean("sync.enabled", false)) return;
+        if (!regionStore.supportsChangeLog()) {
+            getLogger().warning("sync.enabled has no effect with " + getConfig().getString("storage.type") + " storage");
+            return;
         }
-    }
-    
-    private void setupSQLite() {
-        HikariConfig hikariConfig = new HikariConfig();
-        hikariConfig.setJdbcUrl("jdbc:sqlite:plugins/Region/regions.db");
-        hikariConfig.setMaximumPoolSize(1);
-        hikariConfig.setPoolName("RegionHikariCP");
         
-        dataSource = new HikariDataSource(hikariConfig);
+        syncManager = new SyncManager(this, regionManager.getLoadedSequence());
+        syncManager.start(getConfig().getLong("sync.poll-interval-ticks", 40));
     }
 
     public static RegionPlugin getInstance() {
         return instance;
     }
 
-    public Connection getConnection() throws SQLException {
-        return dataSource.getConnection();
+    public RegionStore getRegionStore() {
+        return regionStore;
+    }
+
+    public IoExecutor getIoExecutor() {
+        return ioExecutor;
+    }
+
+    public CircuitBreaker getStorageBreaker() {
+        return storageBreaker;
+    }
+
+    /**
+     * Runs the task on the global region thread, which is the main thread outside Folia, unless
+     * the plugin has been disabled in the meantime. On Folia that thread owns no entities or
+     * blocks; use {@link #runFor} or {@link #runAt} for those.
+     */
+    public void runSync(Runnable task) {
+        if (isEnabled()) {
+            Bukkit.getGlobalRegionScheduler().execute(this, task);
+        }
+    }
+
+    /**
+     * Runs the task on the thread that owns the entity; it is dropped if the entity is removed
+     * (a player logs out) first.
+     */
+    public void runFor(Entity entity, Runnable task) {
+        if (isEnabled()) {
+            entity.getScheduler().run(this, scheduled -> task.run(), null);
+        }
+    }
+
+    /**
+     * Runs the task on the thread that owns the location's chunk.
+     */
+    public void runAt(Location location, Runnable task) {
+        if (isEnabled()) {
+            Bukkit.getRegionScheduler().execute(this, location, task);
+        }
+    }
+
+    /**
+     * Tells the player how a region change went once it is stored, on their own thread.
+     *
+     * @param failureMessage sent when {@code result} is false, i.e. the change was refused
+     */
+    public void reportChange(Player player, CompletableFuture<Boolean> result, Runnable onSuccess, String failureMessage) {
+        result.whenComplete((success, error) -> runFor(player, () -> {
+            if (error != null) {
+                player.sendMessage("§cThe change was applied but could not be saved to the database!");
+            } else if (success) {
+                onSuccess.run();
+            } else {
+                player.sendMessage(failureMessage);
+            }
+        }));
     }
 
     public RegionManager getRegionManager() {
         return regionManager;
     }
 
+    /**
+     * @return the change log follower, or null when sync is disabled
+     */
+    public SyncManager getSyncManager() {
+        return syncManager;
+    }
+
     public WandManager getWandManager() {
         return wandManager;
     }
 
+    public SessionManager getSessionManager() {
+        return sessionManager;
+    }
+
     public GUIManager getGuiManager() {
         return guiManager;
     }
     
+    /**
+     * @return the menu manager, or null when menus are not available
+     */
     public InventoryManager getInvManager() {
         return invManager;
     }
+
+    public boolean areMenusAvailable() {
+        return invManager != null;
+    }
+
+    private static boolean isFolia() {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
 } 
\ No newline at end of file
@@ -1,10 +1,12 @@
 package com.alexetrey.region.commands;
 
+import com.alexetrey.region.IoExecutor;
 import com.alexetrey.region.RegionPlugin;
 import com.alexetrey.region.data.Region;
 import com.alexetrey.region.data.RegionFlags;
 import com.alexetrey.region.gui.GUIManager;
 import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
@@ -13,9 +15,8 @@ import org.bukkit.entity.Player;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
-import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class RegionCommand implements CommandExecutor, TabCompleter {
     private final RegionPlugin plugin;
@@ -58,6 +59,8 @@ public class RegionCommand implements CommandExecutor, TabCompleter {
             case "rename" -> handleRename(player, args);
             case "redefine" -> handleRedefine(player, args);
             case "delete" -> handleDelete(player, args);
+            case "priority" -> handlePriority(player, args);
+            case "stats" -> handleStats(player);
             default -> handleRegionMenu(player, args[0]);
         }
 
@@ -76,7 +79,7 @@ public class RegionCommand implements CommandExecutor, TabCompleter {
         }
 
         String name = args[1];
-        if (plugin.getRegionManager().getRegion(name) != null) {
+        if (plugin.getRegionManager().hasRegion(name)) {
             player.sendMessage("§cA region with that name already exists!");
             return;
         }
@@ -85,14 +88,12 @@ public class RegionCommand implements CommandExecutor, TabCompleter {
             return;
         }
 
-        if (plugin.getRegionManager().createRegion(name, 
+        plugin.reportChange(player, plugin.getRegionManager().createRegion(name, 
                 plugin.getWandManager().getCorner1(player), 
-                plugin.getWandManager().getCorner2(player))) {
+                plugin.getWandManager().getCorner2(player)), () -> {
             player.sendMessage("§aRegion '" + name + "' created successfully!");
             plugin.getWandManager().clearSelection(player);
-        } else {
-            player.sendMessage("§cFailed to create region!");
-        }
+        }, "§cFailed to create region!");
     }
 
     private void handleWand(Player player) {
@@ -124,18 +125,13 @@ public class RegionCommand implements CommandExecutor, TabCompleter {
             return;
         }
 
-        Player target = Bukkit.getPlayer(username);
-        if (target == null) {
-            player.sendMessage("§cPlayer '" + username + "' not found!");
-            return;
-        }
-
-        if (plugin.getRegionManager().addToWhitelist(regionName, target.getUniqueId())) {
+        resolvePlayer(player, username, target -> plugin.reportChange(player, plugin.getRegionManager().addToWhitelist(regionName, target.getUniqueId()), () -> {
             player.sendMessage("§aAdded " + username + " to the whitelist of region '" + regionName + "'!");
-            target.sendMessage("§aYou have been added to the whitelist of region '" + regionName + "'!");
-        } else {
-            player.sendMessage("§cFailed to add player to whitelist!");
-        }
+            Player online = Bukkit.getPlayer(target.getUniqueId());
+            if (online != null) {
+                plugin.runFor(online, () -> online.sendMessage("§aYou have been added to the whitelist of region '" + regionName + "'!"));
+            }
+        }, "§cFailed to add player to whitelist!"));
     }
 
     private void handleRemove(Player player, String[] args) {
@@ -158,18 +154,13 @@ public class RegionCommand implements CommandExecutor, TabCompleter {
             return;
         }
 
-        Player target = Bukkit.getPlayer(username);
-        if (target == null) {
-            player.sendMessage("§cPlayer '" + username + "' not found!");
-            return;
-        }
-
-        if (plugin.getRegionManager().removeFromWhitelist(regionName, target.getUniqueId())) {
+        resolvePlayer(player, username, target -> plugin.reportChange(player, plugin.getRegionManager().removeFromWhitelist(regionName, target.getUniqueId()), () -> {
             player.sendMessage("§aRemoved " + username + " from the whitelist of region '" + regionName + "'!");
-            target.sendMessage("§cYou have been removed from the whitelist of region '" + regionName + "'!");
-        } else {
-            player.sendMessage("§cFailed to remove player from whitelist!");
-        }
+            Player online = Bukkit.getPlayer(target.getUniqueId());
+            if (online != null) {
+                plugin.runFor(online, () -> online.sendMessage("§cYou have been removed from the whitelist of region '" + regionName + "'!"));
+            }
+        }, "§cFailed to remove player from whitelist!"));
     }
 
     private void handleFlag(Player player, String[] args) {
@@ -195,7 +186,7 @@ public class RegionCommand implements CommandExecutor, TabCompleter {
 
         RegionFlags.IFlag flag = RegionFlags.Flag.fromName(flagName);
         if (flag == null) {
-            player.sendMessage("§cInvalid flag! Available flags: block-break, block-place, interact, entity-damage");
+            player.sendMessage("§cInvalid flag! Available flags: " + String.join(", ", getFlagNames()));
             return;
         }
 
@@ -207,11 +198,9 @@ public class RegionCommand implements CommandExecutor, TabCompleter {
             return;
         }
 
-        if (plugin.getRegionManager().setFlag(regionName, flag, state)) {
-            player.sendMessage("§aFlag '" + flagName + "' set to '" + stateName + "' for region '" + regionName + "'!");
-        } else {
-            player.sendMessage("§cFailed to set flag!");
-        }
+        plugin.reportChange(player, plugin.getRegionManager().setFlag(regionName, flag, state), () ->
+            player.sendMessage("§aFlag '" + flagName + "' set to '" + stateName + "' for region '" + regionName + "'!"),
+            "§cFailed to set flag!");
     }
 
     private void handleList(Player player) {
@@ -220,9 +209,7 @@ public class RegionCommand implements CommandExecutor, TabCompleter {
             return;
         }
 
-        Set<Region> playerRegions = plugin.getRegionManager().getAllRegions().stream()
-            .filter(r -> r.isWhitelisted(player.getUniqueId()))
-            .collect(Collectors.toSet());
+        List<Region> playerRegions = plugin.getRegionManager().getRegionsFor(player.getUniqueId());
         if (playerRegions.isEmpty()) {
             player.sendMessage("§eYou are not whitelisted in any regions yet.");
             return;
@@ -265,22 +252,19 @@ public class RegionCommand implements CommandExecutor, TabCompleter {
         String oldName = args[1];
         String newName = args[2];
 
-        Region region = plugin.getRegionManager().getRegion(oldName);
-        if (region == null) {
+        if (!plugin.getRegionManager().hasRegion(oldName)) {
             player.sendMessage("§cRegion '" + oldName + "' not found!");
             return;
         }
 
-        if (plugin.getRegionManager().getRegion(newName) != null) {
+        if (plugin.getRegionManager().hasRegion(newName)) {
             player.sendMessage("§cA region with the name '" + newName + "' already exists!");
             return;
         }
 
-        if (plugin.getRegionManager().renameRegion(oldName, newName)) {
-            player.sendMessage("§aRegion renamed from '" + oldName + "' to '" + newName + "'!");
-        } else {
-            player.sendMessage("§cFailed to rename region!");
-        }
+        plugin.reportChange(player, plugin.getRegionManager().renameRegion(oldName, newName), () ->
+            player.sendMessage("§aRegion renamed from '" + oldName + "' to '" + newName + "'!"),
+            "§cFailed to rename region!");
     }
 
     private void handleRedefine(Player player, String[] args) {
@@ -305,14 +289,12 @@ public class RegionCommand implements CommandExecutor, TabCompleter {
             return;
         }
 
-        if (plugin.getRegionManager().redefineRegion(regionName, 
+        plugin.reportChange(player, plugin.getRegionManager().redefineRegion(regionName, 
                 plugin.getWandManager().getCorner1(player), 
-                plugin.getWandManager().getCorner2(player))) {
+                plugin.getWandManager().getCorner2(player)), () -> {
             player.sendMessage("§aRegion '" + regionName + "' redefined successfully!");
             plugin.getWandManager().clearSelection(player);
-        } else {
-            player.sendMessage("§cFailed to redefine region!");
-        }
+        }, "§cFailed to redefine region!");
     }
 
     private void handleDelete(Player player, String[] args) {
@@ -326,6 +308,28 @@ public class RegionCommand implements CommandExecutor, TabCompleter {
             return;
         }
 
+        String regionName = args[1];
+        if (!plugin.getRegionManager().hasRegion(regionName)) {
+            player.sendMessage("§cRegion '" + regionName + "' not found!");
+            return;
+        }
+
+        plugin.reportChange(player, plugin.getRegionManager().deleteRegion(regionName), () ->
+            player.sendMessage("§aRegion '" + regionName + "' deleted successfully!"),
+            "§cFailed to delete region!");
+    }
+
+    private void handlePriority(Player player, String[] args) {
+        if (!player.hasPermission("region.priority")) {
+            player.sendMessage("§cYou don't have permission to change region priorities!");
+            return;
+        }
+
+        if (args.length < 3) {
+            player.sendMessage("§cUsage: /region priority <name> <priority>");
+            return;
+        }
+
         String regionName = args[1];
         Region region = plugin.getRegionManager().getRegion(regionName);
         if (region == null) {
@@ -333,11 +337,61 @@ public class RegionCommand implements CommandExecutor, TabCompleter {
             return;
         }
 
-        if (plugin.getRegionManager().deleteRegion(regionName)) {
-            player.sendMessage("§aRegion '" + regionName + "' deleted successfully!");
-        } else {
-            player.sendMessage("§cFailed to delete region!");
+        int priority;
+        try {
+            priority = Integer.parseInt(args[2]);
+        } catch (NumberFormatException e) {
+            player.sendMessage("§cPriority must be a whole number!");
+            return;
+        }
+
+        plugin.reportChange(player, plugin.getRegionManager().setPriority(regionName, priority), () ->
+            player.sendMessage("§aPriority of region '" + regionName + "' set to " + priority + "!"),
+            "§cFailed to set region priority!");
+    }
+
+    private void handleStats(Player player) {
+        if (!player.hasPermission("region.stats")) {
+            player.sendMessage("§cYou don't have permission to view region statistics!");
+            return;
+        }
+
+        player.sendMessage("§6=== Region Statistics ===");
+        for (Map.Entry<String, String> stat : plugin.getRegionManager().getStats().entrySet()) {
+            player.sendMessage("§e" + stat.getKey() + ": §f" + stat.getValue());
+        }
+    }
+
+    /**
+     * Finds an online player by name right away; anyone else who has joined before is looked up on
+     * the I/O executor, since that can read the disk or ask Mojang.
+     */
+    private void resolvePlayer(Player sender, String username, Consumer<OfflinePlayer> action) {
+        Player online = Bukkit.getPlayer(username);
+        if (online != null) {
+            action.accept(online);
+            return;
+        }
+
+        IoExecutor io = plugin.getIoExecutor();
+        io.submit(() -> Bukkit.getOfflinePlayer(username)).whenCompleteAsync((target, error) -> {
+            if (error != null || target == null || !target.hasPlayedBefore()) {
+                sender.sendMessage("§cPlayer '" + username + "' not found!");
+                return;
+            }
+            action.accept(target);
+        }, io.on(sender));
+    }
+
+    /**
+     * Built-in and registered custom flags, so both stay in step with {@link RegionFlags}.
+     */
+    private static List<String> getFlagNames() {
+        List<String> names = new ArrayList<>();
+        for (RegionFlags.IFlag flag : RegionFlags.getAllAvailableFlags()) {
+            names.add(flag.getName());
         }
+        return names;
     }
 
     @Override
@@ -345,16 +399,13 @@ public class RegionCommand implements CommandExecutor, TabCompleter {
         List<String> completions = new ArrayList<>();
 
         if (args.length == 1) {
-            completions.addAll(List.of("create", "wand", "add", "remove", "flag", "list", "rename", "redefine", "delete"));
+            completions.addAll(List.of("create", "wand", "add", "remove", "flag", "list", "rename", "redefine", "delete", "priority", "stats"));
         } else if (args.length == 2) {
             String subCommand = args[0].toLowerCase();
             switch (subCommand) {
-                case "add", "remove", "flag", "rename", "redefine", "delete" -> {
+                case "add", "remove", "flag", "rename", "redefine", "delete", "priority" -> {
                     if (sender instanceof Player player) {
-                        Set<Region> playerRegions = plugin.getRegionManager().getAllRegions().stream()
-                            .filter(r -> r.isWhitelisted(player.getUniqueId()))
-                            .collect(Collectors.toSet());
-                        for (Region region : playerRegions) {
+                        for (Region region : plugin.getRegionManager().getRegionsFor(player.getUniqueId())) {
                             completions.add(region.getName());
                         }
                     }
@@ -363,7 +414,7 @@ public class RegionCommand implements CommandExecutor, TabCompleter {
         } else if (args.length == 3) {
             String subCommand = args[0].toLowerCase();
             if ("flag".equals(subCommand)) {
-                completions.addAll(List.of("block-break", "block-place", "interact", "entity-damage"));
+                completions.addAll(getFlagNames());
             } else if ("add".equals(subCommand) || "remove".equals(subCommand)) {
                 for (Player player : Bukkit.getOnlinePlayers()) {
                     completions.add(player.getName());
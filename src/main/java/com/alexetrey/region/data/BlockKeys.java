@@ -0,0 +1,25 @@
+package com.alexetrey.region.data;
+
+/**
+ * Packs block coordinates into a long using the same layout as Paper's {@code Block#getBlockKey()}:
+ * 27 bits of x, 27 bits of z and 10 bits of y.
+ */
+public final class BlockKeys {
+    private BlockKeys() {}
+
+    public static long pack(int x, int y, int z) {
+        return ((long) x & 0x7FFFFFF) | (((long) z & 0x7FFFFFF) << 27) | ((long) y << 54);
+    }
+
+    public static int x(long key) {
+        return (int) ((key << 37) >> 37);
+    }
+
+    public static int y(long key) {
+        return (int) (key >> 54);
+    }
+
+    public static int z(long key) {
+        return (int) ((key << 10) >> 37);
+    }
+}
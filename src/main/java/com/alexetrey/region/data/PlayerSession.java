@@ -0,0 +1,108 @@
+package com.alexetrey.region.data;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.UUID;
+
+/**
+ * Tracks which block, chunk and region a player was last seen in, so movement handling only
+ * does work when the player actually crosses a block and only re-probes the index on a chunk
+ * change or after the region set changed.
+ * <p>
+ * Also caches the player's bypass permission and the protection decisions made against the last
+ * region they were checked in. The movement state is only touched from the player's own thread,
+ * but protection checks can come from any thread, so both caches are immutable objects published
+ * through volatile fields. Two threads racing to update one just means a decision is made twice.
+ */
+public class PlayerSession {
+    public static final String BYPASS_PERMISSION = "region.bypass";
+
+    private static final long BYPASS_TTL_NANOS = 1_000_000_000L;
+    private static final int MEMO_FLAGS = Long.SIZE;
+
+    private World world;
+    private int blockX, blockY, blockZ;
+    private long chunkKey;
+    private long indexVersion = -1;
+    private RegionIndex.Cell cell = RegionIndex.Cell.EMPTY;
+    private Region region;
+
+    private volatile Bypass bypass;
+    private volatile Memo memo;
+
+    public boolean isAt(World world, int x, int y, int z) {
+        return this.world == world && blockX == x && blockY == y && blockZ == z;
+    }
+
+    public Region moveTo(RegionIndex index, World world, int x, int y, int z) {
+        long chunkKey = RegionIndex.chunkKey(x >> 4, z >> 4);
+        long version = index.getVersion();
+        if (world != this.world || chunkKey != this.chunkKey || version != indexVersion) {
+            this.cell = index.getCell(world, x, z);
+            this.chunkKey = chunkKey;
+            this.indexVersion = version;
+        }
+
+        this.world = world;
+        this.blockX = x;
+        this.blockY = y;
+        this.blockZ = z;
+        this.region = cell.getRegionAt(x, y, z);
+        return region;
+    }
+
+    public Region getRegion() {
+        return region;
+    }
+
+    /**
+     * Permission plugins give no recalculation event, so besides explicit invalidation the cached
+     * value is re-read after a short TTL.
+     */
+    public boolean hasBypass(Player player) {
+        long now = System.nanoTime();
+        Bypass current = bypass;
+        if (current == null || now - current.checkedAt() > BYPASS_TTL_NANOS) {
+            current = new Bypass(player.hasPermission(BYPASS_PERMISSION), now);
+            bypass = current;
+        }
+        return current.allowed();
+    }
+
+    public void invalidatePermissions() {
+        bypass = null;
+    }
+
+    public boolean isAllowed(Region region, RegionFlags.IFlag flag, UUID playerId) {
+        int id = flag.getId();
+        if (id >= MEMO_FLAGS) {
+            return region.getFlags().isAllowed(flag, region.isWhitelisted(playerId));
+        }
+
+        long defaultsVersion = RegionFlags.getDefaultsVersion();
+        Memo current = memo;
+        if (current == null || current.region() != region || current.defaultsVersion() != defaultsVersion) {
+            current = new Memo(region, defaultsVersion, region.isWhitelisted(playerId), 0L, 0L);
+        }
+
+        long bit = 1L << id;
+        if ((current.decided() & bit) == 0) {
+            boolean allowed = region.getFlags().isAllowed(flag, current.whitelisted());
+            current = new Memo(region, defaultsVersion, current.whitelisted(),
+                current.decided() | bit, allowed ? current.allowed() | bit : current.allowed());
+            memo = current;
+        }
+        return (current.allowed() & bit) != 0;
+    }
+
+    private record Bypass(boolean allowed, long checkedAt) {
+    }
+
+    /**
+     * Decisions for the first {@value #MEMO_FLAGS} flag ids, one bit each. Regions are immutable,
+     * so it stays valid for as long as the same instance is checked.
+     */
+    private record Memo(Region region, long defaultsVersion, boolean whitelisted, long decided, long allowed) {
+    }
+}
@@ -1,66 +1,169 @@
 package com.alexetrey.region.data;
 
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.World;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Set;
 import java.util.UUID;
 
+/**
+ * An immutable snapshot of a region. Changes go through the {@code with...} methods, which return
+ * a new instance for the manager to publish, so a reader holding a region always sees one
+ * consistent state without locking.
+ * <p>
+ * Keeps only the world's name and id rather than the {@link World} itself, so an unloaded world
+ * is not held in memory by its regions.
+ */
 public class Region {
     private final String name;
-    private final World world;
-    private final Location corner1;
-    private final Location corner2;
+    private final String worldName;
+    private final UUID worldId;
+    private final int corner1X, corner1Y, corner1Z;
+    private final int corner2X, corner2Y, corner2Z;
+    private final int minX, minY, minZ;
+    private final int maxX, maxY, maxZ;
     private final RegionFlags flags;
     private final long createdAt;
-    private final Set<UUID> whitelist;
+    private final UUIDSet whitelist;
+    private final Set<UUID> whitelistView;
+    private final int priority;
 
     public Region(String name, World world, Location corner1, Location corner2) {
-        this.name = name;
-        this.world = world;
-        this.corner1 = corner1;
-        this.corner2 = corner2;
-        this.flags = new RegionFlags();
-        this.createdAt = System.currentTimeMillis();
-        this.whitelist = new HashSet<>();
+        this(name, world, corner1, corner2, new UUIDSet(), new RegionFlags(), System.currentTimeMillis(), 0);
+    }
+
+    /**
+     * @param whitelist taken over as is when it is a {@link UUIDSet}, which must then not be changed afterwards
+     */
+    public Region(String name, World world, Location corner1, Location corner2, Set<UUID> whitelist, RegionFlags flags, long createdAt, int priority) {
+        this(name, world.getName(), world.getUID(),
+            corner1.getBlockX(), corner1.getBlockY(), corner1.getBlockZ(),
+            corner2.getBlockX(), corner2.getBlockY(), corner2.getBlockZ(),
+            whitelist instanceof UUIDSet uuidSet ? uuidSet : whitelist != null ? new UUIDSet(whitelist) : new UUIDSet(),
+            flags != null ? flags : new RegionFlags(), createdAt, priority);
     }
 
-    public Region(String name, World world, Location corner1, Location corner2, Set<UUID> whitelist, RegionFlags flags, long createdAt) {
+    private Region(String name, String worldName, UUID worldId, int corner1X, int corner1Y, int corner1Z,
+                   int corner2X, int corner2Y, int corner2Z, UUIDSet whitelist, RegionFlags flags, long createdAt, int priority) {
         this.name = name;
-        this.world = world;
-        this.corner1 = corner1;
-        this.corner2 = corner2;
-        this.flags = flags != null ? flags : new RegionFlags();
+        this.worldName = worldName;
+        this.worldId = worldId;
+        this.corner1X = corner1X;
+        this.corner1Y = corner1Y;
+        this.corner1Z = corner1Z;
+        this.corner2X = corner2X;
+        this.corner2Y = corner2Y;
+        this.corner2Z = corner2Z;
+        this.minX = Math.min(corner1X, corner2X);
+        this.minY = Math.min(corner1Y, corner2Y);
+        this.minZ = Math.min(corner1Z, corner2Z);
+        this.maxX = Math.max(corner1X, corner2X);
+        this.maxY = Math.max(corner1Y, corner2Y);
+        this.maxZ = Math.max(corner1Z, corner2Z);
+        this.flags = flags;
         this.createdAt = createdAt;
-        this.whitelist = whitelist != null ? whitelist : new HashSet<>();
+        this.whitelist = whitelist;
+        this.whitelistView = Collections.unmodifiableSet(whitelist);
+        this.priority = priority;
+    }
+
+    public Region withName(String newName) {
+        return new Region(newName, worldName, worldId, corner1X, corner1Y, corner1Z, corner2X, corner2Y, corner2Z,
+            whitelist, flags, createdAt, priority);
+    }
+
+    /**
+     * Corners in another world are not supported; only their block coordinates are used.
+     */
+    public Region withCorners(Location corner1, Location corner2) {
+        return new Region(name, worldName, worldId,
+            corner1.getBlockX(), corner1.getBlockY(), corner1.getBlockZ(),
+            corner2.getBlockX(), corner2.getBlockY(), corner2.getBlockZ(),
+            whitelist, flags, createdAt, priority);
+    }
+
+    public Region withPriority(int newPriority) {
+        return newPriority == priority ? this : new Region(name, worldName, worldId, corner1X, corner1Y, corner1Z,
+            corner2X, corner2Y, corner2Z, whitelist, flags, createdAt, newPriority);
+    }
+
+    public Region withFlags(RegionFlags newFlags) {
+        return newFlags == flags ? this : new Region(name, worldName, worldId, corner1X, corner1Y, corner1Z,
+            corner2X, corner2Y, corner2Z, whitelist, newFlags, createdAt, priority);
+    }
+
+    public Region withWhitelisted(UUID uuid) {
+        return withWhitelist(whitelist.with(uuid));
+    }
+
+    public Region withoutWhitelisted(UUID uuid) {
+        return withWhitelist(whitelist.without(uuid));
+    }
+
+    private Region withWhitelist(UUIDSet newWhitelist) {
+        return newWhitelist == whitelist ? this : new Region(name, worldName, worldId, corner1X, corner1Y, corner1Z,
+            corner2X, corner2Y, corner2Z, newWhitelist, flags, createdAt, priority);
+    }
+
+    /**
+     * @return whether {@code other} covers exactly the same blocks at the same priority, so it
+     *         sorts and indexes the same way as this region
+     */
+    public boolean hasSamePlacement(Region other) {
+        return name.equals(other.name) && worldId.equals(other.worldId) && priority == other.priority
+            && minX == other.minX && minY == other.minY && minZ == other.minZ
+            && maxX == other.maxX && maxY == other.maxY && maxZ == other.maxZ;
     }
 
     public boolean contains(Location location) {
-        if (!location.getWorld().equals(world)) return false;
-        
-        int x = location.getBlockX();
-        int y = location.getBlockY();
-        int z = location.getBlockZ();
-        
-        int minX = Math.min(corner1.getBlockX(), corner2.getBlockX());
-        int maxX = Math.max(corner1.getBlockX(), corner2.getBlockX());
-        int minY = Math.min(corner1.getBlockY(), corner2.getBlockY());
-        int maxY = Math.max(corner1.getBlockY(), corner2.getBlockY());
-        int minZ = Math.min(corner1.getBlockZ(), corner2.getBlockZ());
-        int maxZ = Math.max(corner1.getBlockZ(), corner2.getBlockZ());
-        
+        return contains(location.getWorld(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    public boolean contains(World world, int x, int y, int z) {
+        return isIn(world) && contains(x, y, z);
+    }
+
+    /**
+     * @param blockKey a packed block position in Paper's {@code Block#getBlockKey()} layout
+     */
+    public boolean contains(World world, long blockKey) {
+        return isIn(world) && contains(BlockKeys.x(blockKey), BlockKeys.y(blockKey), BlockKeys.z(blockKey));
+    }
+
+    public boolean contains(int x, int y, int z) {
         return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
     }
 
-    public Set<UUID> getWhitelist() { return whitelist; }
-    public void addToWhitelist(UUID uuid) { whitelist.add(uuid); }
-    public void removeFromWhitelist(UUID uuid) { whitelist.remove(uuid); }
+    public boolean isIn(World world) {
+        return world != null && worldId.equals(world.getUID());
+    }
+
+    public Set<UUID> getWhitelist() { return whitelistView; }
     public boolean isWhitelisted(UUID uuid) { return whitelist.contains(uuid); }
 
     public String getName() { return name; }
-    public World getWorld() { return world; }
-    public Location getCorner1() { return corner1; }
-    public Location getCorner2() { return corner2; }
+    /**
+     * @return the region's world, or null while that world is not loaded
+     */
+    public World getWorld() { return Bukkit.getWorld(worldId); }
+    public String getWorldName() { return worldName; }
+    public UUID getWorldId() { return worldId; }
+    public Location getCorner1() { return new Location(getWorld(), corner1X, corner1Y, corner1Z); }
+    public Location getCorner2() { return new Location(getWorld(), corner2X, corner2Y, corner2Z); }
+    public int getCorner1X() { return corner1X; }
+    public int getCorner1Y() { return corner1Y; }
+    public int getCorner1Z() { return corner1Z; }
+    public int getCorner2X() { return corner2X; }
+    public int getCorner2Y() { return corner2Y; }
+    public int getCorner2Z() { return corner2Z; }
+    public int getMinX() { return minX; }
+    public int getMinY() { return minY; }
+    public int getMinZ() { return minZ; }
+    public int getMaxX() { return maxX; }
+    public int getMaxY() { return maxY; }
+    public int getMaxZ() { return maxZ; }
     public RegionFlags getFlags() { return flags; }
     public long getCreatedAt() { return createdAt; }
-} 
\ No newline at end of file
+    public int getPriority() { return priority; }
+}
@@ -1,5 +1,6 @@
 package com.alexetrey.region.data;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -13,13 +14,35 @@ public class RegionFlags {
 
     public interface IFlag {
         String getName();
+
+        /**
+         * Dense id used to address this flag's slot in {@link RegionFlags}; assigned on registration.
+         */
+        default int getId() {
+            return CustomFlagRegistry.idOf(getName());
+        }
     }
 
     public enum Flag implements IFlag {
         BLOCK_BREAK("block-break"),
         BLOCK_PLACE("block-place"),
         INTERACT("interact"),
-        ENTITY_DAMAGE("entity-damage");
+        ENTITY_DAMAGE("entity-damage"),
+        EXPLOSION("explosion"),
+        FIRE_SPREAD("fire-spread"),
+        IGNITE("ignite"),
+        BURN("burn"),
+        FLUID_FLOW("fluid-flow"),
+        PISTON("piston"),
+        HOPPER("hopper");
+
+        private static final Map<String, Flag> BY_NAME = new HashMap<>();
+
+        static {
+            for (Flag flag : values()) {
+                BY_NAME.put(flag.name, flag);
+            }
+        }
 
         private final String name;
 
@@ -32,21 +55,29 @@ public class RegionFlags {
             return name;
         }
 
+        @Override
+        public int getId() {
+            return ordinal();
+        }
+
         public static IFlag fromName(String name) {
-            for (Flag flag : values()) {
-                if (flag.name.equalsIgnoreCase(name)) {
-                    return flag;
-                }
-            }
-            return CustomFlagRegistry.getFlag(name);
+            Flag flag = BY_NAME.get(name);
+            if (flag != null) return flag;
+
+            IFlag customFlag = CustomFlagRegistry.getFlag(name);
+            if (customFlag != null) return customFlag;
+
+            return BY_NAME.get(name.toLowerCase());
         }
     }
 
     public static class CustomFlag implements IFlag {
         private final String name;
+        private final int id;
 
         public CustomFlag(String name) {
             this.name = name;
+            this.id = CustomFlagRegistry.idOf(name);
         }
 
         @Override
@@ -54,6 +85,11 @@ public class RegionFlags {
             return name;
         }
 
+        @Override
+        public int getId() {
+            return id;
+        }
+
         @Override
         public boolean equals(Object obj) {
             if (this == obj) return true;
@@ -70,15 +106,29 @@ public class RegionFlags {
 
     public static class CustomFlagRegistry {
         private static final Map<String, IFlag> customFlags = new ConcurrentHashMap<>();
+        private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private static volatile IFlag[] flagsById = Arrays.copyOf(Flag.values(), Flag.values().length, IFlag[].class);
+        private static int nextId = Flag.values().length;
 
         public static IFlag registerCustomFlag(String name) {
+            return registerCustomFlag(name, FlagState.NONE);
+        }
+
+        public static IFlag registerCustomFlag(String name, FlagState defaultState) {
             CustomFlag customFlag = new CustomFlag(name);
+            setDefaultState(customFlag, defaultState);
             customFlags.put(name.toLowerCase(), customFlag);
+            synchronized (ids) {
+                IFlag[] byId = Arrays.copyOf(flagsById, Math.max(flagsById.length, customFlag.getId() + 1));
+                byId[customFlag.getId()] = customFlag;
+                flagsById = byId;
+            }
             return customFlag;
         }
 
         public static IFlag getFlag(String name) {
-            return customFlags.get(name.toLowerCase());
+            IFlag flag = customFlags.get(name);
+            return flag != null ? flag : customFlags.get(name.toLowerCase());
         }
 
         public static Map<String, IFlag> getCustomFlags() {
@@ -88,52 +138,195 @@ public class RegionFlags {
         public static void unregisterCustomFlag(String name) {
             customFlags.remove(name.toLowerCase());
         }
+
+        public static IFlag getFlagById(int id) {
+            IFlag[] byId = flagsById;
+            return id < byId.length ? byId[id] : null;
+        }
+
+        /**
+         * Ids are handed out once per flag name and never reused, so a flag that is unregistered and
+         * registered again keeps its slot.
+         */
+        static int idOf(String name) {
+            String key = name.toLowerCase();
+            Flag builtIn = Flag.BY_NAME.get(key);
+            if (builtIn != null) return builtIn.ordinal();
+
+            Integer id = ids.get(key);
+            if (id != null) return id;
+            synchronized (ids) {
+                id = ids.get(key);
+                if (id == null) {
+                    id = nextId++;
+                    ids.put(key, id);
+                    IFlag[] byId = Arrays.copyOf(flagsById, id + 1);
+                    byId[id] = new CustomFlag(name);
+                    flagsById = byId;
+                }
+                return id;
+            }
+        }
     }
 
-    private final Map<IFlag, FlagState> flags;
+    private static final FlagState[] STATES = FlagState.values();
+    private static final int BITS_PER_FLAG = 2;
+    private static final int FLAGS_PER_WORD = Long.SIZE / BITS_PER_FLAG;
+    private static final long STATE_MASK = 0b11;
+    private static final int UNSET = 0;
+    private static final long[] NO_STATES = new long[0];
+
+    // Shared by every region and replaced copy-on-write; a flag missing here defaults to NONE.
+    private static volatile long[] defaultStates = NO_STATES;
+    private static volatile long defaultsVersion;
+
+    // 2 bits per flag id: 0 = not overridden, otherwise FlagState ordinal + 1. Never modified once
+    // built; changes produce a new instance.
+    private final long[] states;
 
     public RegionFlags() {
-        this.flags = new HashMap<>();
-        flags.put(Flag.BLOCK_BREAK, FlagState.NONE);
-        flags.put(Flag.BLOCK_PLACE, FlagState.NONE);
-        flags.put(Flag.INTERACT, FlagState.NONE);
-        flags.put(Flag.ENTITY_DAMAGE, FlagState.NONE);
-        
-        for (IFlag customFlag : CustomFlagRegistry.getCustomFlags().values()) {
-            flags.put(customFlag, FlagState.NONE);
+        this(NO_STATES);
+    }
+
+    private RegionFlags(long[] states) {
+        this.states = states;
+    }
+
+    /**
+     * @param overrides the flags to set; a null state leaves that flag unset
+     */
+    public static RegionFlags of(Map<? extends IFlag, FlagState> overrides) {
+        long[] words = NO_STATES;
+        for (Map.Entry<? extends IFlag, FlagState> entry : overrides.entrySet()) {
+            if (entry.getValue() == null) continue;
+            int id = entry.getKey().getId();
+            if (id / FLAGS_PER_WORD >= words.length) {
+                words = Arrays.copyOf(words, id / FLAGS_PER_WORD + 1);
+            }
+            setCode(words, id, entry.getValue().ordinal() + 1);
+        }
+        return new RegionFlags(words);
+    }
+
+    public static FlagState getDefaultState(IFlag flag) {
+        return toState(getCode(defaultStates, flag.getId()));
+    }
+
+    public static synchronized void setDefaultState(IFlag flag, FlagState state) {
+        long[] defaults = defaultStates;
+        long[] updated = Arrays.copyOf(defaults, Math.max(defaults.length, flag.getId() / FLAGS_PER_WORD + 1));
+        setCode(updated, flag.getId(), state.ordinal() + 1);
+        defaultStates = updated;
+        defaultsVersion++;
+    }
+
+    /**
+     * Bumped whenever a default changes, so anything caching flag decisions can tell it went stale.
+     */
+    public static long getDefaultsVersion() {
+        return defaultsVersion;
+    }
+
+    /**
+     * @return these flags with {@code flag} overridden, or this instance if it already was
+     */
+    public RegionFlags withFlag(IFlag flag, FlagState state) {
+        return withCode(flag.getId(), state.ordinal() + 1);
+    }
+
+    /**
+     * @return these flags without an override for {@code flag}, or this instance if there was none
+     */
+    public RegionFlags withoutFlag(IFlag flag) {
+        return withCode(flag.getId(), UNSET);
+    }
+
+    /**
+     * Applies several changes at once; a null state removes that override.
+     */
+    public RegionFlags withChanges(Map<? extends IFlag, FlagState> changes) {
+        RegionFlags result = this;
+        for (Map.Entry<? extends IFlag, FlagState> entry : changes.entrySet()) {
+            result = entry.getValue() == null ? result.withoutFlag(entry.getKey()) : result.withFlag(entry.getKey(), entry.getValue());
         }
+        return result;
     }
 
-    public void setFlag(IFlag flag, FlagState state) {
-        flags.put(flag, state);
+    public boolean isSet(IFlag flag) {
+        return getCode(states, flag.getId()) != UNSET;
     }
 
     public FlagState getFlag(IFlag flag) {
-        return flags.getOrDefault(flag, FlagState.NONE);
+        return toState(getEffectiveCode(flag.getId()));
     }
 
     public boolean isAllowed(IFlag flag, boolean isWhitelisted) {
-        FlagState state = getFlag(flag);
-        return switch (state) {
-            case EVERYONE -> true;
-            case WHITELIST -> isWhitelisted;
-            case NONE -> false;
+        return switch (getEffectiveCode(flag.getId())) {
+            case 1 -> true;
+            case 2 -> isWhitelisted;
+            default -> false;
         };
     }
 
     public Map<IFlag, FlagState> getAllFlags() {
-        return new HashMap<>(flags);
+        Map<IFlag, FlagState> flags = new HashMap<>();
+        for (IFlag flag : getAllAvailableFlags()) {
+            flags.put(flag, getFlag(flag));
+        }
+        return flags;
     }
 
-    public void setAllFlags(Map<IFlag, FlagState> flags) {
-        this.flags.clear();
-        this.flags.putAll(flags);
+    /**
+     * @return only the flags explicitly set on this region, including ones whose flag is not registered right now
+     */
+    public Map<IFlag, FlagState> getOverrides() {
+        Map<IFlag, FlagState> overrides = new HashMap<>();
+        long[] words = states;
+        for (int id = 0; id < words.length * FLAGS_PER_WORD; id++) {
+            int code = getCode(words, id);
+            IFlag flag = code == UNSET ? null : CustomFlagRegistry.getFlagById(id);
+            if (flag != null) {
+                overrides.put(flag, toState(code));
+            }
+        }
+        return overrides;
+    }
+
+    private int getEffectiveCode(int id) {
+        int code = getCode(states, id);
+        return code != UNSET ? code : getCode(defaultStates, id);
+    }
+
+    private RegionFlags withCode(int id, int code) {
+        if (getCode(states, id) == code) return this;
+        long[] words = Arrays.copyOf(states, Math.max(states.length, id / FLAGS_PER_WORD + 1));
+        setCode(words, id, code);
+        return new RegionFlags(words);
+    }
+
+    private static int getCode(long[] words, int id) {
+        int word = id / FLAGS_PER_WORD;
+        if (word >= words.length) return UNSET;
+        return (int) ((words[word] >>> shift(id)) & STATE_MASK);
+    }
+
+    private static void setCode(long[] words, int id, int code) {
+        int word = id / FLAGS_PER_WORD;
+        words[word] = (words[word] & ~(STATE_MASK << shift(id))) | ((long) code << shift(id));
+    }
+
+    private static FlagState toState(int code) {
+        return code == UNSET ? FlagState.NONE : STATES[code - 1];
+    }
+
+    private static int shift(int id) {
+        return (id % FLAGS_PER_WORD) * BITS_PER_FLAG;
     }
 
     public static IFlag[] getAllAvailableFlags() {
         Map<String, IFlag> customFlags = CustomFlagRegistry.getCustomFlags();
         IFlag[] allFlags = new IFlag[Flag.values().length + customFlags.size()];
-        
+
         int index = 0;
         for (Flag flag : Flag.values()) {
             allFlags[index++] = flag;
@@ -141,7 +334,9 @@ public class RegionFlags {
         for (IFlag customFlag : customFlags.values()) {
             allFlags[index++] = customFlag;
         }
-        
+        Arrays.sort(allFlags, Flag.values().length, allFlags.length,
+            (a, b) -> Integer.compare(a.getId(), b.getId()));
+
         return allFlags;
     }
-} 
\ No newline at end of file
+}
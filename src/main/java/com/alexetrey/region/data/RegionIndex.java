@@ -0,0 +1,549 @@
+package com.alexetrey.region.data;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Spatial index mapping (world, chunk) to the regions overlapping that chunk.
+ * Each world's cells live in an open-addressing table keyed by the packed chunk key, so lookups
+ * neither box nor lock. Writers serialize on the index, build a changed copy of the world's table
+ * and publish it in one step, the same copy-on-write the cells use.
+ * Each cell is kept sorted by {@link #PRIORITY_ORDER}, so the first match wins an overlap.
+ * <p>
+ * Regions spanning more than {@link #LARGE_REGION_CHUNKS} chunks get no cells of their own, so a
+ * huge region cannot fill memory with cells. They are kept in a per-world list that a lookup falls
+ * back to when the chunk has no cell, and are merged into the cells of smaller regions they overlap.
+ */
+public class RegionIndex {
+    public static final Comparator<Region> PRIORITY_ORDER = Comparator
+        .comparingInt(Region::getPriority).reversed()
+        .thenComparing(Region::getName);
+
+    public static final int LARGE_REGION_CHUNKS = 1024;
+
+    private final Map<UUID, WorldCells> worlds = new ConcurrentHashMap<>();
+    private volatile long version;
+
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Bumped after every change, so callers holding on to a {@link Cell} can tell when it went stale.
+     * Every published region update goes through the index, so this is also the global epoch for
+     * anything caching per-region state.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public Cell getCell(Location location) {
+        return getCell(location.getWorld(), location.getBlockX(), location.getBlockZ());
+    }
+
+    public Cell getCell(World world, int blockX, int blockZ) {
+        if (world == null) return Cell.EMPTY;
+        WorldCells cells = worlds.get(world.getUID());
+        if (cells == null) return Cell.EMPTY;
+        return cells.get(chunkKey(blockX >> 4, blockZ >> 4));
+    }
+
+    public synchronized void add(Region region) {
+        addAll(List.of(region));
+    }
+
+    /**
+     * Indexes many regions at once, building each touched cell a single time instead of once per region.
+     */
+    public synchronized void addAll(Collection<Region> regions) {
+        Map<UUID, List<Region>> byWorld = new HashMap<>();
+        for (Region region : regions) {
+            byWorld.computeIfAbsent(region.getWorldId(), id -> new ArrayList<>()).add(region);
+        }
+        for (Map.Entry<UUID, List<Region>> world : byWorld.entrySet()) {
+            publish(world.getKey(), worlds.getOrDefault(world.getKey(), WorldCells.EMPTY).withAdded(world.getValue()));
+        }
+        version++;
+    }
+
+    public synchronized void remove(Region region) {
+        WorldCells cells = worlds.get(region.getWorldId());
+        if (cells == null) return;
+        publish(region.getWorldId(), cells.without(region));
+        version++;
+    }
+
+    public synchronized void replace(Region oldRegion, Region newRegion) {
+        WorldCells cells = worlds.getOrDefault(oldRegion.getWorldId(), WorldCells.EMPTY);
+        if (oldRegion.hasSamePlacement(newRegion)) {
+            // Only the flags or whitelist changed, so cell order and bounds stay as they are.
+            publish(oldRegion.getWorldId(), cells.swapped(oldRegion, newRegion));
+        } else {
+            // One publish, so readers never see the region missing in between.
+            publish(oldRegion.getWorldId(), cells.without(oldRegion).withAdded(List.of(newRegion)));
+        }
+        version++;
+    }
+
+    /**
+     * Drops every cell of the given world at once, e.g. when it unloads.
+     */
+    public synchronized void removeWorld(UUID worldId) {
+        if (worlds.remove(worldId) != null) {
+            version++;
+        }
+    }
+
+    public synchronized void clear() {
+        worlds.clear();
+        version++;
+    }
+
+    private void publish(UUID worldId, WorldCells cells) {
+        if (cells.isEmpty()) {
+            worlds.remove(worldId);
+        } else {
+            worlds.put(worldId, cells);
+        }
+    }
+
+    static boolean isLarge(Region region) {
+        long width = (region.getMaxX() >> 4) - (region.getMinX() >> 4) + 1L;
+        long depth = (region.getMaxZ() >> 4) - (region.getMinZ() >> 4) + 1L;
+        return width * depth > LARGE_REGION_CHUNKS;
+    }
+
+    private static boolean overlapsChunk(Region region, long chunkKey) {
+        int chunkX = (int) (chunkKey >> 32);
+        int chunkZ = (int) chunkKey;
+        return chunkX >= region.getMinX() >> 4 && chunkX <= region.getMaxX() >> 4
+            && chunkZ >= region.getMinZ() >> 4 && chunkZ <= region.getMaxZ() >> 4;
+    }
+
+    private static void forEachChunk(Region region, ChunkConsumer consumer) {
+        for (int cx = region.getMinX() >> 4; cx <= region.getMaxX() >> 4; cx++) {
+            for (int cz = region.getMinZ() >> 4; cz <= region.getMaxZ() >> 4; cz++) {
+                consumer.accept(chunkKey(cx, cz));
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChunkConsumer {
+        void accept(long chunkKey);
+    }
+
+    @FunctionalInterface
+    private interface CellUpdate {
+        Cell apply(long chunkKey, Cell cell);
+    }
+
+    /**
+     * One world's cells and large regions. Never changed once published; writers derive a new one.
+     */
+    private static final class WorldCells {
+        static final WorldCells EMPTY = new WorldCells(ChunkTable.EMPTY, new Region[0]);
+
+        private final ChunkTable table;
+        private final Region[] large;
+        // Every large region, for chunks without a cell; its bounds still decide what matches.
+        private final Cell largeCell;
+
+        private WorldCells(ChunkTable table, Region[] large) {
+            this.table = table;
+            this.large = large;
+            this.largeCell = large.length == 0 ? Cell.EMPTY : Cell.unplaced(large);
+        }
+
+        Cell get(long chunkKey) {
+            Cell cell = table.get(chunkKey);
+            return cell != null ? cell : largeCell;
+        }
+
+        boolean isEmpty() {
+            return table.size() == 0 && large.length == 0;
+        }
+
+        WorldCells withAdded(List<Region> regions) {
+            ChunkTable updated = table.copy();
+            List<Region> addedLarge = new ArrayList<>();
+            Map<Long, List<Region>> grouped = new HashMap<>();
+            for (Region region : regions) {
+                if (isLarge(region)) {
+                    addedLarge.add(region);
+                } else {
+                    forEachChunk(region, key -> grouped.computeIfAbsent(key, k -> new ArrayList<>(2)).add(region));
+                }
+            }
+
+            Region[] allLarge = large;
+            if (!addedLarge.isEmpty()) {
+                allLarge = Arrays.copyOf(large, large.length + addedLarge.size());
+                for (int i = 0; i < addedLarge.size(); i++) {
+                    allLarge[large.length + i] = addedLarge.get(i);
+                }
+                Arrays.sort(allLarge, PRIORITY_ORDER);
+                updated.replaceAll((key, cell) -> {
+                    List<Region> overlapping = overlapping(addedLarge, key);
+                    return overlapping.isEmpty() ? cell : cell.with(overlapping);
+                });
+            }
+
+            for (Map.Entry<Long, List<Region>> entry : grouped.entrySet()) {
+                long key = entry.getKey();
+                Cell existing = updated.get(key);
+                if (existing != null) {
+                    updated.put(key, existing.with(entry.getValue()));
+                } else {
+                    List<Region> cellRegions = overlapping(Arrays.asList(allLarge), key);
+                    cellRegions.addAll(entry.getValue());
+                    updated.put(key, Cell.of(key, cellRegions));
+                }
+            }
+            return new WorldCells(updated, allLarge);
+        }
+
+        WorldCells without(Region region) {
+            ChunkTable updated = table.copy();
+            if (!isLarge(region)) {
+                forEachChunk(region, key -> {
+                    Cell cell = updated.get(key);
+                    if (cell == null) return;
+                    Cell remaining = cell.without(region);
+                    if (remaining.hasOnlyLarge()) {
+                        updated.remove(key);
+                    } else {
+                        updated.put(key, remaining);
+                    }
+                });
+                return new WorldCells(updated, large);
+            }
+
+            int index = indexOf(large, region);
+            if (index < 0) return this;
+            Region[] remaining = new Region[large.length - 1];
+            System.arraycopy(large, 0, remaining, 0, index);
+            System.arraycopy(large, index + 1, remaining, index, large.length - index - 1);
+            updated.replaceAll((key, cell) -> cell.without(region));
+            return new WorldCells(updated, remaining);
+        }
+
+        WorldCells swapped(Region oldRegion, Region newRegion) {
+            ChunkTable updated = table.copy();
+            if (!isLarge(oldRegion)) {
+                forEachChunk(oldRegion, key -> {
+                    Cell cell = updated.get(key);
+                    if (cell != null) {
+                        updated.put(key, cell.swap(oldRegion, newRegion));
+                    }
+                });
+                return new WorldCells(updated, large);
+            }
+
+            int index = indexOf(large, oldRegion);
+            if (index < 0) return this;
+            Region[] swapped = large.clone();
+            swapped[index] = newRegion;
+            updated.replaceAll((key, cell) -> cell.swap(oldRegion, newRegion));
+            return new WorldCells(updated, swapped);
+        }
+
+        private static List<Region> overlapping(List<Region> regions, long chunkKey) {
+            List<Region> overlapping = new ArrayList<>();
+            for (Region region : regions) {
+                if (overlapsChunk(region, chunkKey)) {
+                    overlapping.add(region);
+                }
+            }
+            return overlapping;
+        }
+
+        private static int indexOf(Region[] regions, Region region) {
+            for (int i = 0; i < regions.length; i++) {
+                if (regions[i] == region) return i;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Open-addressing map from chunk key to cell with linear probing; a null cell marks a free slot.
+     * Only changed while a writer builds it, before it is published.
+     */
+    private static final class ChunkTable {
+        static final ChunkTable EMPTY = new ChunkTable(new long[8], new Cell[8], 0);
+
+        private long[] keys;
+        private Cell[] cells;
+        private int size;
+
+        private ChunkTable(long[] keys, Cell[] cells, int size) {
+            this.keys = keys;
+            this.cells = cells;
+            this.size = size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        ChunkTable copy() {
+            return new ChunkTable(keys.clone(), cells.clone(), size);
+        }
+
+        Cell get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+                Cell cell = cells[i];
+                if (cell == null || keys[i] == key) return cell;
+            }
+        }
+
+        void put(long key, Cell cell) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+                if (cells[i] == null) {
+                    keys[i] = key;
+                    cells[i] = cell;
+                    size++;
+                    return;
+                }
+                if (keys[i] == key) {
+                    cells[i] = cell;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Shifts later entries of the probe run back into the freed slot, so no tombstones are needed.
+         */
+        void remove(long key) {
+            int mask = keys.length - 1;
+            int hole = slot(key, mask);
+            while (cells[hole] != null && keys[hole] != key) {
+                hole = (hole + 1) & mask;
+            }
+            if (cells[hole] == null) return;
+
+            cells[hole] = null;
+            size--;
+            for (int i = (hole + 1) & mask; cells[i] != null; i = (i + 1) & mask) {
+                int home = slot(keys[i], mask);
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    cells[hole] = cells[i];
+                    cells[i] = null;
+                    hole = i;
+                }
+            }
+        }
+
+        /**
+         * Replaces every cell with what {@code update} returns for it; the keys stay as they are.
+         */
+        void replaceAll(CellUpdate update) {
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] != null) {
+                    cells[i] = update.apply(keys[i], cells[i]);
+                }
+            }
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            Cell[] oldCells = cells;
+            keys = new long[capacity];
+            cells = new Cell[capacity];
+            size = 0;
+            for (int i = 0; i < oldCells.length; i++) {
+                if (oldCells[i] != null) {
+                    put(oldKeys[i], oldCells[i]);
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+
+    /**
+     * The regions overlapping one chunk, in priority order, with their bounds copied into a flat
+     * {@code int[]} (minX, minY, minZ, maxX, maxY, maxZ per region) so scans stay on one array.
+     */
+    public static final class Cell {
+        public static final Cell EMPTY = new Cell(0L, new Region[0]);
+
+        private static final int STRIDE = 6;
+
+        private final long chunkKey;
+        private final Region[] regions;
+        private final int[] bounds;
+        // Heights between which every region covers the whole chunk; an empty range if one does not.
+        private final int coveredMinY;
+        private final int coveredMaxY;
+
+        private Cell(Cell placement, Region[] regions) {
+            this(placement, regions, placement.coveredMinY, placement.coveredMaxY);
+        }
+
+        private Cell(Cell placement, Region[] regions, int coveredMinY, int coveredMaxY) {
+            this.chunkKey = placement.chunkKey;
+            this.regions = regions;
+            this.bounds = placement.bounds;
+            this.coveredMinY = coveredMinY;
+            this.coveredMaxY = coveredMaxY;
+        }
+
+        /**
+         * @param regions already sorted by {@link #PRIORITY_ORDER}
+         */
+        private Cell(long chunkKey, Region[] regions) {
+            this.chunkKey = chunkKey;
+            this.regions = regions;
+            this.bounds = new int[regions.length * STRIDE];
+            int originX = (int) (chunkKey >> 32) << 4;
+            int originZ = (int) chunkKey << 4;
+            int minY = Integer.MIN_VALUE;
+            int maxY = Integer.MAX_VALUE;
+            for (int i = 0; i < regions.length; i++) {
+                Region region = regions[i];
+                int offset = i * STRIDE;
+                bounds[offset] = region.getMinX();
+                bounds[offset + 1] = region.getMinY();
+                bounds[offset + 2] = region.getMinZ();
+                bounds[offset + 3] = region.getMaxX();
+                bounds[offset + 4] = region.getMaxY();
+                bounds[offset + 5] = region.getMaxZ();
+
+                if (region.getMinX() > originX || region.getMaxX() < originX + 15
+                        || region.getMinZ() > originZ || region.getMaxZ() < originZ + 15) {
+                    minY = Integer.MAX_VALUE;
+                    maxY = Integer.MIN_VALUE;
+                } else {
+                    minY = Math.max(minY, region.getMinY());
+                    maxY = Math.min(maxY, region.getMaxY());
+                }
+            }
+            this.coveredMinY = minY;
+            this.coveredMaxY = maxY;
+        }
+
+        private static Cell of(long chunkKey, List<Region> regions) {
+            Region[] sorted = regions.toArray(new Region[0]);
+            Arrays.sort(sorted, PRIORITY_ORDER);
+            return new Cell(chunkKey, sorted);
+        }
+
+        /**
+         * A cell not tied to one chunk, such as a world's large regions. It claims an edge
+         * everywhere, so callers always fall back to checking the regions themselves.
+         */
+        private static Cell unplaced(Region[] regions) {
+            Cell cell = new Cell(0L, regions);
+            return new Cell(cell, regions, Integer.MAX_VALUE, Integer.MIN_VALUE);
+        }
+
+        /**
+         * @return whether a region boundary runs through this chunk anywhere between the given
+         *         heights; if not, every block there is in the same regions
+         */
+        public boolean hasEdge(int minY, int maxY) {
+            return coveredMinY > minY || coveredMaxY < maxY;
+        }
+
+        public int size() {
+            return regions.length;
+        }
+
+        public boolean isEmpty() {
+            return regions.length == 0;
+        }
+
+        public Region get(int index) {
+            return regions[index];
+        }
+
+        public boolean contains(int index, int x, int y, int z) {
+            int offset = index * STRIDE;
+            return x >= bounds[offset] && y >= bounds[offset + 1] && z >= bounds[offset + 2]
+                && x <= bounds[offset + 3] && y <= bounds[offset + 4] && z <= bounds[offset + 5];
+        }
+
+        /**
+         * @return the index of the first region at or after {@code from} containing the block, or -1
+         */
+        public int indexOf(int x, int y, int z, int from) {
+            for (int i = from; i < regions.length; i++) {
+                if (contains(i, x, y, z)) return i;
+            }
+            return -1;
+        }
+
+        public Region getRegionAt(int x, int y, int z) {
+            int index = indexOf(x, y, z, 0);
+            return index < 0 ? null : regions[index];
+        }
+
+        private Cell with(List<Region> added) {
+            Region[] merged = Arrays.copyOf(regions, regions.length + added.size());
+            for (int i = 0; i < added.size(); i++) {
+                merged[regions.length + i] = added.get(i);
+            }
+            Arrays.sort(merged, PRIORITY_ORDER);
+            return new Cell(chunkKey, merged);
+        }
+
+        /**
+         * @return whether the world's large-region fallback would answer the same as this cell
+         */
+        private boolean hasOnlyLarge() {
+            for (Region region : regions) {
+                if (!isLarge(region)) return false;
+            }
+            return true;
+        }
+
+        private Cell swap(Region oldRegion, Region newRegion) {
+            for (int i = 0; i < regions.length; i++) {
+                if (regions[i] == oldRegion) {
+                    Region[] swapped = regions.clone();
+                    swapped[i] = newRegion;
+                    return new Cell(this, swapped);
+                }
+            }
+            return this;
+        }
+
+        private Cell without(Region region) {
+            int index = -1;
+            for (int i = 0; i < regions.length; i++) {
+                if (regions[i] == region) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) return this;
+
+            Region[] remaining = new Region[regions.length - 1];
+            System.arraycopy(regions, 0, remaining, 0, index);
+            System.arraycopy(regions, index + 1, remaining, index, regions.length - index - 1);
+            return new Cell(chunkKey, remaining);
+        }
+    }
+}
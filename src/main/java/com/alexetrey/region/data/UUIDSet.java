@@ -0,0 +1,265 @@
+package com.alexetrey.region.data;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Open-addressing set of UUIDs stored as pairs of longs, without boxing or per-entry nodes.
+ * Writers copy the table and publish it through a volatile field, so reads and iteration never
+ * lock and always see a consistent snapshot. Meant for read-mostly sets such as region whitelists.
+ */
+public final class UUIDSet extends AbstractSet<UUID> {
+    private static final int MIN_CAPACITY = 8;
+    private static final Table EMPTY = new Table(new long[MIN_CAPACITY * 2], 0, false);
+
+    private volatile Table table = EMPTY;
+
+    public UUIDSet() {
+    }
+
+    public UUIDSet(Collection<UUID> uuids) {
+        addAll(uuids);
+    }
+
+    private UUIDSet(Table table) {
+        this.table = table;
+    }
+
+    /**
+     * @return a new set with {@code uuid} added, or this set if it is already there; this set is
+     *         left as it is
+     */
+    public UUIDSet with(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        Table current = table;
+        return current.contains(msb, lsb) ? this : new UUIDSet(current.with(msb, lsb));
+    }
+
+    /**
+     * @return a new set without {@code uuid}, or this set if it was not there; this set is left as it is
+     */
+    public UUIDSet without(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        Table current = table;
+        return current.contains(msb, lsb) ? new UUIDSet(current.without(msb, lsb)) : this;
+    }
+
+    @Override
+    public int size() {
+        return table.size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof UUID uuid && contains(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    public boolean contains(long mostSigBits, long leastSigBits) {
+        return table.contains(mostSigBits, leastSigBits);
+    }
+
+    @Override
+    public synchronized boolean add(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        Table current = table;
+        if (current.contains(msb, lsb)) return false;
+        table = current.with(msb, lsb);
+        return true;
+    }
+
+    /**
+     * Builds the new table once instead of copying it for every element.
+     */
+    @Override
+    public synchronized boolean addAll(Collection<? extends UUID> uuids) {
+        Table current = table;
+        int capacity = current.capacity();
+        while ((current.size + uuids.size()) * 4 > capacity * 3) {
+            capacity <<= 1;
+        }
+        long[] slots = capacity == current.capacity() ? current.slots.clone() : current.rehash(capacity);
+        int size = current.size;
+        boolean hasNil = current.hasNil;
+        for (UUID uuid : uuids) {
+            long msb = uuid.getMostSignificantBits();
+            long lsb = uuid.getLeastSignificantBits();
+            if (msb == 0L && lsb == 0L) {
+                if (!hasNil) {
+                    hasNil = true;
+                    size++;
+                }
+            } else if (Table.insertIfAbsent(slots, msb, lsb)) {
+                size++;
+            }
+        }
+        if (size == current.size) return false;
+        table = new Table(slots, size, hasNil);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(Object o) {
+        if (!(o instanceof UUID uuid)) return false;
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        Table current = table;
+        if (!current.contains(msb, lsb)) return false;
+        table = current.without(msb, lsb);
+        return true;
+    }
+
+    @Override
+    public synchronized void clear() {
+        table = EMPTY;
+    }
+
+    @Override
+    public Iterator<UUID> iterator() {
+        Table snapshot = table;
+        return new Iterator<>() {
+            private int slot = snapshot.hasNil ? -1 : nextSlot(0);
+            private UUID last;
+
+            @Override
+            public boolean hasNext() {
+                return slot < snapshot.capacity();
+            }
+
+            @Override
+            public UUID next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                if (slot < 0) {
+                    last = new UUID(0L, 0L);
+                    slot = nextSlot(0);
+                } else {
+                    last = new UUID(snapshot.slots[slot * 2], snapshot.slots[slot * 2 + 1]);
+                    slot = nextSlot(slot + 1);
+                }
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) throw new IllegalStateException();
+                UUIDSet.this.remove(last);
+                last = null;
+            }
+
+            private int nextSlot(int from) {
+                int i = from;
+                while (i < snapshot.capacity() && snapshot.isFree(i)) {
+                    i++;
+                }
+                return i;
+            }
+        };
+    }
+
+    private static int indexFor(long msb, long lsb, int mask) {
+        long hash = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Slot pairs of (0, 0) are free; the nil UUID is tracked by {@code hasNil} instead.
+     */
+    private static final class Table {
+        private final long[] slots;
+        private final int size;
+        private final boolean hasNil;
+
+        private Table(long[] slots, int size, boolean hasNil) {
+            this.slots = slots;
+            this.size = size;
+            this.hasNil = hasNil;
+        }
+
+        private int capacity() {
+            return slots.length / 2;
+        }
+
+        private boolean isFree(int slot) {
+            return slots[slot * 2] == 0L && slots[slot * 2 + 1] == 0L;
+        }
+
+        private boolean contains(long msb, long lsb) {
+            if (msb == 0L && lsb == 0L) return hasNil;
+            int mask = capacity() - 1;
+            for (int i = indexFor(msb, lsb, mask); ; i = (i + 1) & mask) {
+                long slotMsb = slots[i * 2];
+                long slotLsb = slots[i * 2 + 1];
+                if (slotMsb == msb && slotLsb == lsb) return true;
+                if (slotMsb == 0L && slotLsb == 0L) return false;
+            }
+        }
+
+        private Table with(long msb, long lsb) {
+            if (msb == 0L && lsb == 0L) return new Table(slots, size + 1, true);
+
+            int capacity = capacity();
+            while ((size + 1) * 4 > capacity * 3) {
+                capacity <<= 1;
+            }
+            long[] copy = capacity == capacity() ? slots.clone() : rehash(capacity);
+            insert(copy, msb, lsb);
+            return new Table(copy, size + 1, hasNil);
+        }
+
+        private Table without(long msb, long lsb) {
+            if (msb == 0L && lsb == 0L) return new Table(slots, size - 1, false);
+
+            int capacity = capacity();
+            while (capacity > MIN_CAPACITY && (size - 1) * 4 < capacity) {
+                capacity >>= 1;
+            }
+            long[] copy = new long[capacity * 2];
+            for (int i = 0; i < capacity(); i++) {
+                if (isFree(i)) continue;
+                long slotMsb = slots[i * 2];
+                long slotLsb = slots[i * 2 + 1];
+                if (slotMsb != msb || slotLsb != lsb) {
+                    insert(copy, slotMsb, slotLsb);
+                }
+            }
+            return new Table(copy, size - 1, hasNil);
+        }
+
+        private long[] rehash(int capacity) {
+            long[] copy = new long[capacity * 2];
+            for (int i = 0; i < capacity(); i++) {
+                if (!isFree(i)) {
+                    insert(copy, slots[i * 2], slots[i * 2 + 1]);
+                }
+            }
+            return copy;
+        }
+
+        private static boolean insertIfAbsent(long[] slots, long msb, long lsb) {
+            int mask = slots.length / 2 - 1;
+            int i = indexFor(msb, lsb, mask);
+            while (slots[i * 2] != 0L || slots[i * 2 + 1] != 0L) {
+                if (slots[i * 2] == msb && slots[i * 2 + 1] == lsb) return false;
+                i = (i + 1) & mask;
+            }
+            slots[i * 2] = msb;
+            slots[i * 2 + 1] = lsb;
+            return true;
+        }
+
+        private static void insert(long[] slots, long msb, long lsb) {
+            int mask = slots.length / 2 - 1;
+            int i = indexFor(msb, lsb, mask);
+            while (slots[i * 2] != 0L || slots[i * 2 + 1] != 0L) {
+                i = (i + 1) & mask;
+            }
+            slots[i * 2] = msb;
+            slots[i * 2 + 1] = lsb;
+        }
+    }
+}
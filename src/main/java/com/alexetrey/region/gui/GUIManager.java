@@ -1,5 +1,6 @@
 package com.alexetrey.region.gui;
 
+import com.alexetrey.region.IoExecutor;
 import com.alexetrey.region.RegionPlugin;
 import com.alexetrey.region.data.Region;
 import com.alexetrey.region.data.RegionFlags;
@@ -13,11 +14,11 @@ import fr.minuskube.inv.content.InventoryContents;
 import fr.minuskube.inv.content.InventoryProvider;
 import fr.minuskube.inv.content.SlotPos;
 import fr.minuskube.inv.ClickableItem;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.UUID;
-import java.util.HashSet;
-import java.util.stream.Collectors;
 
 public class GUIManager {
     private final RegionPlugin plugin;
@@ -27,12 +28,12 @@ public class GUIManager {
     }
 
     public void openRegionsMenu(Player player) {
+        if (!checkMenusAvailable(player)) return;
         try {
-            Set<Region> allRegions = new HashSet<>(plugin.getRegionManager().getAllRegions());
-            Set<Region> playerRegions = allRegions.stream().filter(r -> r.isWhitelisted(player.getUniqueId())).collect(Collectors.toSet());
+            List<Region> playerRegions = plugin.getRegionManager().getRegionsFor(player.getUniqueId());
             plugin.getLogger().info("Opening regions menu for player " + player.getName() + " with " + playerRegions.size() + " regions");
             
-            fr.minuskube.inv.SmartInventory.builder()
+            show(player, SmartInventory.builder()
                 .manager(plugin.getInvManager())
                 .id("regions_menu")
                 .provider(new InventoryProvider() {
@@ -67,8 +68,7 @@ public class GUIManager {
                 })
                 .size(6, 9)
                 .title("§8Regions Menu")
-                .build()
-                .open(player);
+                .build());
         } catch (Exception e) {
             plugin.getLogger().severe("Error opening regions menu for player " + player.getName() + ": " + e.getMessage());
             e.printStackTrace();
@@ -77,7 +77,8 @@ public class GUIManager {
     }
 
     public void openRegionMenu(Player player, Region region) {
-        SmartInventory.builder()
+        if (!checkMenusAvailable(player)) return;
+        show(player, SmartInventory.builder()
             .manager(plugin.getInvManager())
             .id("region_menu_" + region.getName())
             .provider(new InventoryProvider() {
@@ -103,7 +104,7 @@ public class GUIManager {
                         whitelistItem.setItemMeta(whitelistMeta);
                     }
                     contents.set(SlotPos.of(1, 3), ClickableItem.of(whitelistItem, e -> {
-                        openWhitelistMenu(player, region);
+                        openWhitelistMenu(player, latest(region));
                     }));
 
                     ItemStack redefineItem = new ItemStack(Material.COMPASS);
@@ -126,7 +127,7 @@ public class GUIManager {
                         flagsItem.setItemMeta(flagsMeta);
                     }
                     contents.set(SlotPos.of(1, 7), ClickableItem.of(flagsItem, e -> {
-                        openFlagsMenu(player, region);
+                        openFlagsMenu(player, latest(region));
                     }));
 
                     ItemStack deleteItem = new ItemStack(Material.BARRIER);
@@ -146,13 +147,38 @@ public class GUIManager {
             })
             .size(3, 9)
             .title("§8Region: §f" + region.getName())
-            .build()
-            .open(player);
+            .build());
     }
 
+    /**
+     * Looks up the members' names on the I/O executor, since that can hit the disk, then opens the menu.
+     */
     public void openWhitelistMenu(Player player, Region region) {
-        Set<UUID> whitelist = region.getWhitelist();
-        SmartInventory.builder()
+        if (!checkMenusAvailable(player)) return;
+        List<UUID> members = new ArrayList<>(region.getWhitelist());
+        IoExecutor io = plugin.getIoExecutor();
+        io.submit(() -> resolveNames(members)).whenCompleteAsync((names, error) -> {
+            if (error != null) {
+                player.sendMessage("§cFailed to look up whitelisted players!");
+            } else if (player.isOnline()) {
+                showWhitelistMenu(player, region, names);
+            }
+        }, io.on(player));
+    }
+
+    private static Map<UUID, String> resolveNames(List<UUID> members) {
+        Map<UUID, String> names = new LinkedHashMap<>();
+        for (UUID uuid : members) {
+            String name = Bukkit.getOfflinePlayer(uuid).getName();
+            if (name != null) {
+                names.put(uuid, name);
+            }
+        }
+        return names;
+    }
+
+    private void showWhitelistMenu(Player player, Region region, Map<UUID, String> names) {
+        show(player, SmartInventory.builder()
             .manager(plugin.getInvManager())
             .id("whitelist_menu_" + region.getName())
             .provider(new InventoryProvider() {
@@ -160,29 +186,28 @@ public class GUIManager {
                 public void init(Player player, InventoryContents contents) {
                     int row = 0;
                     int col = 0;
-                    for (UUID uuid : whitelist) {
-                        String name = Bukkit.getOfflinePlayer(uuid).getName();
-                        if (name != null) {
-                            ItemStack item = new ItemStack(Material.PLAYER_HEAD);
-                            ItemMeta meta = item.getItemMeta();
-                            if (meta != null) {
-                                meta.setDisplayName("§f" + name);
-                                meta.setLore(List.of("§7Click to remove from whitelist"));
-                                item.setItemMeta(meta);
-                            }
-                            final String playerName = name;
-                            contents.set(SlotPos.of(row, col), ClickableItem.of(item, e -> {
-                                region.removeFromWhitelist(uuid);
-                                player.sendMessage("§aRemoved §f" + playerName + " §afrom whitelist");
-                                openWhitelistMenu(player, region);
-                            }));
-                            if (++col >= 9) {
-                                col = 0;
-                                row++;
-                            }
+                    for (Map.Entry<UUID, String> member : names.entrySet()) {
+                        UUID uuid = member.getKey();
+                        String playerName = member.getValue();
+                        ItemStack item = new ItemStack(Material.PLAYER_HEAD);
+                        ItemMeta meta = item.getItemMeta();
+                        if (meta != null) {
+                            meta.setDisplayName("§f" + playerName);
+                            meta.setLore(List.of("§7Click to remove from whitelist"));
+                            item.setItemMeta(meta);
+                        }
+                        contents.set(SlotPos.of(row, col), ClickableItem.of(item, e -> {
+                            plugin.reportChange(player, plugin.getRegionManager().removeFromWhitelist(region.getName(), uuid),
+                                () -> player.sendMessage("§aRemoved §f" + playerName + " §afrom whitelist"),
+                                "§cRegion '" + region.getName() + "' no longer exists!");
+                            openWhitelistMenu(player, latest(region));
+                        }));
+                        if (++col >= 9) {
+                            col = 0;
+                            row++;
                         }
                     }
-                    if (whitelist.isEmpty()) {
+                    if (names.isEmpty()) {
                         ItemStack emptyItem = new ItemStack(Material.BARRIER);
                         ItemMeta meta = emptyItem.getItemMeta();
                         if (meta != null) {
@@ -198,13 +223,13 @@ public class GUIManager {
             })
             .size(6, 9)
             .title("§8Whitelist: §f" + region.getName())
-            .build()
-            .open(player);
+            .build());
     }
 
     public void openFlagsMenu(Player player, Region region) {
+        if (!checkMenusAvailable(player)) return;
         RegionFlags flags = region.getFlags();
-        SmartInventory.builder()
+        show(player, SmartInventory.builder()
             .manager(plugin.getInvManager())
             .id("flags_menu_" + region.getName())
             .provider(new InventoryProvider() {
@@ -227,9 +252,10 @@ public class GUIManager {
                         final RegionFlags.IFlag currentFlag = flag;
                         contents.set(SlotPos.of(slot / 9, slot % 9), ClickableItem.of(item, e -> {
                             RegionFlags.FlagState newState = cycleFlagState(state);
-                            flags.setFlag(currentFlag, newState);
-                            player.sendMessage("§aSet §f" + currentFlag.getName().replace("-", " ").replace("_", " ") + " §ato §f" + newState.name());
-                            openFlagsMenu(player, region);
+                            plugin.reportChange(player, plugin.getRegionManager().setFlag(region.getName(), currentFlag, newState),
+                                () -> player.sendMessage("§aSet §f" + currentFlag.getName().replace("-", " ").replace("_", " ") + " §ato §f" + newState.name()),
+                                "§cRegion '" + region.getName() + "' no longer exists!");
+                            openFlagsMenu(player, latest(region));
                         }));
                         slot++;
                     }
@@ -239,8 +265,28 @@ public class GUIManager {
             })
             .size(6, 9)
             .title("§8Flags: §f" + region.getName())
-            .build()
-            .open(player);
+            .build());
+    }
+
+    private boolean checkMenusAvailable(Player player) {
+        if (plugin.areMenusAvailable()) return true;
+        player.sendMessage("§cMenus are not available on this server; use the /region commands instead.");
+        return false;
+    }
+
+    /**
+     * Opens the menu on the player's own thread, as Folia requires.
+     */
+    private void show(Player player, SmartInventory inventory) {
+        plugin.runFor(player, () -> inventory.open(player));
+    }
+
+    /**
+     * Regions are immutable snapshots, so a menu opened after a change has to look up the new one.
+     */
+    private Region latest(Region region) {
+        Region current = plugin.getRegionManager().getRegion(region.getName());
+        return current != null ? current : region;
     }
 
     private ItemStack createRegionItem(Region region) {
@@ -264,6 +310,13 @@ public class GUIManager {
             case "block-place": return Material.BRICKS;
             case "interact": return Material.LEVER;
             case "entity-damage": return Material.DIAMOND_SWORD;
+            case "explosion": return Material.TNT;
+            case "fire-spread": return Material.CAMPFIRE;
+            case "ignite": return Material.FLINT_AND_STEEL;
+            case "burn": return Material.FIRE_CHARGE;
+            case "fluid-flow": return Material.WATER_BUCKET;
+            case "piston": return Material.PISTON;
+            case "hopper": return Material.HOPPER;
             default: return Material.BARRIER;
         }
     }
@@ -0,0 +1,144 @@
+package com.alexetrey.region.listeners;
+
+import com.alexetrey.region.RegionPlugin;
+import com.alexetrey.region.data.RegionFlags;
+import com.alexetrey.region.managers.RegionManager;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockIgniteEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockSpreadEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
+
+import java.util.List;
+
+/**
+ * Protection against things no player does directly: explosions, fire, and fluids, pistons and
+ * hoppers moving things across a region boundary. The boundary events fire very often, so they
+ * go through {@link RegionManager#canCross}, which skips region lookups inside a single chunk
+ * without region edges.
+ */
+public class EnvironmentListener implements Listener {
+    private final RegionPlugin plugin;
+
+    public EnvironmentListener(RegionPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        plugin.getRegionManager().removeProtected(event.getEntity().getWorld(), event.blockList(), RegionFlags.Flag.EXPLOSION);
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        plugin.getRegionManager().removeProtected(event.getBlock().getWorld(), event.blockList(), RegionFlags.Flag.EXPLOSION);
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onBlockIgnite(BlockIgniteEvent event) {
+        RegionManager regionManager = plugin.getRegionManager();
+        Block block = event.getBlock();
+        Player player = event.getPlayer();
+        if (player != null) {
+            if (!regionManager.hasPermission(player, block, RegionFlags.Flag.IGNITE)) {
+                event.setCancelled(true);
+                player.sendMessage("§cYou cannot start fires in this region!");
+            }
+            return;
+        }
+
+        RegionFlags.IFlag flag = event.getCause() == BlockIgniteEvent.IgniteCause.SPREAD
+            ? RegionFlags.Flag.FIRE_SPREAD
+            : RegionFlags.Flag.IGNITE;
+        if (!regionManager.isAllowed(block, flag)) {
+            event.setCancelled(true);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onBlockSpread(BlockSpreadEvent event) {
+        Material source = event.getSource().getType();
+        if (source != Material.FIRE && source != Material.SOUL_FIRE) return;
+
+        if (!plugin.getRegionManager().isAllowed(event.getBlock(), RegionFlags.Flag.FIRE_SPREAD)) {
+            event.setCancelled(true);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onBlockBurn(BlockBurnEvent event) {
+        if (!plugin.getRegionManager().isAllowed(event.getBlock(), RegionFlags.Flag.BURN)) {
+            event.setCancelled(true);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onFluidFlow(BlockFromToEvent event) {
+        Block from = event.getBlock();
+        Block to = event.getToBlock();
+        if (!plugin.getRegionManager().canCross(from.getWorld(), from.getX(), from.getY(), from.getZ(),
+                to.getX(), to.getY(), to.getZ(), RegionFlags.Flag.FLUID_FLOW)) {
+            event.setCancelled(true);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onPistonExtend(BlockPistonExtendEvent event) {
+        if (!canPistonMove(event.getBlock(), event.getBlocks(), event.getDirection())) {
+            event.setCancelled(true);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onPistonRetract(BlockPistonRetractEvent event) {
+        if (!canPistonMove(event.getBlock(), event.getBlocks(), event.getDirection())) {
+            event.setCancelled(true);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onHopperMove(InventoryMoveItemEvent event) {
+        // getLocation() rather than getHolder(), which would snapshot the block state on every move.
+        Location from = event.getSource().getLocation();
+        Location to = event.getDestination().getLocation();
+        if (from == null || to == null || from.getWorld() != to.getWorld()) return;
+
+        if (!plugin.getRegionManager().canCross(from.getWorld(), from.getBlockX(), from.getBlockY(), from.getBlockZ(),
+                to.getBlockX(), to.getBlockY(), to.getBlockZ(), RegionFlags.Flag.HOPPER)) {
+            event.setCancelled(true);
+        }
+    }
+
+    /**
+     * The piston is what moves the blocks, so both each moved block and the spot it moves to are
+     * checked against the piston's position.
+     */
+    private boolean canPistonMove(Block piston, List<Block> blocks, BlockFace direction) {
+        RegionManager regionManager = plugin.getRegionManager();
+        World world = piston.getWorld();
+        int x = piston.getX();
+        int y = piston.getY();
+        int z = piston.getZ();
+        for (Block block : blocks) {
+            if (!regionManager.canCross(world, x, y, z, block.getX(), block.getY(), block.getZ(), RegionFlags.Flag.PISTON)
+                    || !regionManager.canCross(world, x, y, z, block.getX() + direction.getModX(), block.getY() + direction.getModY(),
+                        block.getZ() + direction.getModZ(), RegionFlags.Flag.PISTON)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,9 +1,11 @@
 package com.alexetrey.region.listeners;
 
 import com.alexetrey.region.RegionPlugin;
+import com.alexetrey.region.data.PlayerSession;
 import com.alexetrey.region.data.Region;
 import com.alexetrey.region.data.RegionFlags;
 import org.bukkit.Location;
+import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -11,22 +13,28 @@ import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.entity.EntityDamageByEntityEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 
 public class RegionListener implements Listener {
     private final RegionPlugin plugin;
+    private final boolean showEntryTitle;
 
     public RegionListener(RegionPlugin plugin) {
         this.plugin = plugin;
+        this.showEntryTitle = plugin.getConfig().getBoolean("features.show-entry-title", true);
     }
 
     @EventHandler(priority = EventPriority.HIGH)
     public void onBlockBreak(BlockBreakEvent event) {
         Player player = event.getPlayer();
-        Location location = event.getBlock().getLocation();
         
-        if (!plugin.getRegionManager().hasPermission(player, location, RegionFlags.Flag.BLOCK_BREAK)) {
+        if (!plugin.getRegionManager().hasPermission(player, event.getBlock(), RegionFlags.Flag.BLOCK_BREAK)) {
             event.setCancelled(true);
             player.sendMessage("§cYou cannot break blocks in this region!");
         }
@@ -35,9 +43,8 @@ public class RegionListener implements Listener {
     @EventHandler(priority = EventPriority.HIGH)
     public void onBlockPlace(BlockPlaceEvent event) {
         Player player = event.getPlayer();
-        Location location = event.getBlock().getLocation();
         
-        if (!plugin.getRegionManager().hasPermission(player, location, RegionFlags.Flag.BLOCK_PLACE)) {
+        if (!plugin.getRegionManager().hasPermission(player, event.getBlock(), RegionFlags.Flag.BLOCK_PLACE)) {
             event.setCancelled(true);
             player.sendMessage("§cYou cannot place blocks in this region!");
         }
@@ -46,9 +53,12 @@ public class RegionListener implements Listener {
     @EventHandler(priority = EventPriority.HIGH)
     public void onPlayerInteract(PlayerInteractEvent event) {
         Player player = event.getPlayer();
-        Location location = event.getClickedBlock() != null ? event.getClickedBlock().getLocation() : player.getLocation();
+        Block clicked = event.getClickedBlock();
+        boolean allowed = clicked != null
+            ? plugin.getRegionManager().hasPermission(player, clicked, RegionFlags.Flag.INTERACT)
+            : plugin.getRegionManager().hasPermission(player, player.getLocation(), RegionFlags.Flag.INTERACT);
         
-        if (!plugin.getRegionManager().hasPermission(player, location, RegionFlags.Flag.INTERACT)) {
+        if (!allowed) {
             event.setCancelled(true);
             player.sendMessage("§cYou cannot interact with blocks in this region!");
         }
@@ -67,17 +77,47 @@ public class RegionListener implements Listener {
     }
 
     @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        plugin.getSessionManager().startSession(event.getPlayer());
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        plugin.getSessionManager().endSession(event.getPlayer());
+    }
+
+    @EventHandler
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        plugin.getSessionManager().invalidatePermissions(event.getPlayer());
+    }
+
+    @EventHandler
+    public void onWorldLoad(WorldLoadEvent event) {
+        plugin.getRegionManager().loadWorld(event.getWorld());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        plugin.getRegionManager().unloadWorld(event.getWorld());
+    }
+
+    @EventHandler(ignoreCancelled = true)
     public void onPlayerMove(PlayerMoveEvent event) {
         Player player = event.getPlayer();
-        Location from = event.getFrom();
         Location to = event.getTo();
         
         if (to == null) return;
         
-        Region fromRegion = plugin.getRegionManager().getRegionAt(from);
-        Region toRegion = plugin.getRegionManager().getRegionAt(to);
+        int x = to.getBlockX();
+        int y = to.getBlockY();
+        int z = to.getBlockZ();
+        PlayerSession session = plugin.getSessionManager().getSession(player);
+        if (session.isAt(to.getWorld(), x, y, z)) return;
+        
+        Region fromRegion = session.getRegion();
+        Region toRegion = session.moveTo(plugin.getRegionManager().getIndex(), to.getWorld(), x, y, z);
         
-        if (plugin.getConfig().getBoolean("features.show-entry-title", true)) {
+        if (showEntryTitle) {
             if (fromRegion == null && toRegion != null) {
                 player.sendTitle("§a" + toRegion.getName(), "§7Protected Region", 10, 40, 10);
             } else if (fromRegion != null && toRegion == null) {
@@ -1,295 +1,593 @@
 package com.alexetrey.region.managers;
 
+import com.alexetrey.region.IoExecutor;
 import com.alexetrey.region.RegionPlugin;
+import com.alexetrey.region.data.PlayerSession;
 import com.alexetrey.region.data.Region;
 import com.alexetrey.region.data.RegionFlags;
+import com.alexetrey.region.data.RegionIndex;
+import com.alexetrey.region.storage.ChangeJournal;
+import com.alexetrey.region.storage.CircuitBreaker;
+import com.alexetrey.region.storage.OfflineQueue;
+import com.alexetrey.region.storage.RegionChange;
+import com.alexetrey.region.storage.RegionSnapshot;
+import com.alexetrey.region.storage.RegionStore;
+import com.alexetrey.region.storage.StoredRegion;
+import com.alexetrey.region.storage.WriteBehindQueue;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.World;
+import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
 
-import java.sql.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
 
 public class RegionManager {
+    private static final long WORLD_LOAD_WRITE_TIMEOUT_MILLIS = 5000;
+    private static final String SNAPSHOT_FILE = "regions.snapshot";
+    private static final String OFFLINE_QUEUE_FILE = "pending-changes.dat";
+    private static final long HEALTH_CHECK_SECONDS = 5;
+
     private final RegionPlugin plugin;
+    private final RegionStore store;
     private final Map<String, Region> regions;
+    private final RegionIndex index;
+    private final Map<UUID, Set<String>> memberships;
+    // Name -> world name of stored regions whose world is not loaded; keeps their names reserved.
+    private final Map<String, String> unloadedRegions;
+    // Regions are immutable snapshots; writers take this lock to derive and publish the next one
+    // and queue its change in the same order. Readers never lock.
+    private final Object writeLock = new Object();
+    private final OfflineQueue offlineQueue;
+    private final WriteBehindQueue writeQueue;
+    private final long loadedSequence;
+    private final ScheduledTask healthCheck;
+    private volatile boolean unsavedChanges;
+    // Set when loading had to be skipped or failed; retried once storage is reachable again.
+    private volatile boolean deferredLoads;
+    private volatile boolean initialLoadDone;
 
     public RegionManager(RegionPlugin plugin) {
         this.plugin = plugin;
+        this.store = plugin.getRegionStore();
         this.regions = new ConcurrentHashMap<>();
+        this.index = new RegionIndex();
+        this.memberships = new ConcurrentHashMap<>();
+        this.unloadedRegions = new ConcurrentHashMap<>();
+        this.offlineQueue = createOfflineQueue();
+        this.writeQueue = new WriteBehindQueue(offlineQueue, plugin.getLogger());
         createTables();
-        loadRegions();
+        if (!offlineQueue.isEmpty()) {
+            // Left over from the last run; stored first so the load below includes them.
+            offlineQueue.replay();
+        }
+        // Read before loading, so changes stored meanwhile are picked up again by the sync.
+        this.loadedSequence = readLatestChangeSequence();
+        this.initialLoadDone = loadSnapshot() || loadRegions();
+        this.deferredLoads = !initialLoadDone;
+        this.healthCheck = Bukkit.getAsyncScheduler().runAtFixedRate(plugin, task -> checkStorage(),
+            HEALTH_CHECK_SECONDS, HEALTH_CHECK_SECONDS, TimeUnit.SECONDS);
     }
 
-    private void createTables() {
-        try (Connection conn = plugin.getConnection();
-             Statement stmt = conn.createStatement()) {
-            
-            stmt.execute("""
-                CREATE TABLE IF NOT EXISTS regions (
-                    name VARCHAR(64) PRIMARY KEY,
-                    world VARCHAR(64) NOT NULL,
-                    corner1_x INT NOT NULL,
-                    corner1_y INT NOT NULL,
-                    corner1_z INT NOT NULL,
-                    corner2_x INT NOT NULL,
-                    corner2_y INT NOT NULL,
-                    corner2_z INT NOT NULL,
-                    created_at BIGINT NOT NULL
-                )
-            """);
-
-            stmt.execute("""
-                CREATE TABLE IF NOT EXISTS region_whitelist (
-                    region_name VARCHAR(64) NOT NULL,
-                    player_uuid VARCHAR(36) NOT NULL,
-                    PRIMARY KEY (region_name, player_uuid),
-                    FOREIGN KEY (region_name) REFERENCES regions(name) ON DELETE CASCADE
-                )
-            """);
-
-            stmt.execute("""
-                CREATE TABLE IF NOT EXISTS region_flags (
-                    region_name VARCHAR(64) NOT NULL,
-                    flag_name VARCHAR(32) NOT NULL,
-                    flag_state VARCHAR(16) NOT NULL,
-                    PRIMARY KEY (region_name, flag_name),
-                    FOREIGN KEY (region_name) REFERENCES regions(name) ON DELETE CASCADE
-                )
-            """);
+    private OfflineQueue createOfflineQueue() {
+        ChangeJournal journal = new ChangeJournal(plugin.getDataFolder().toPath().resolve(OFFLINE_QUEUE_FILE), plugin.getLogger());
+        try {
+            journal.load();
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to read offline queue: " + e.getMessage());
+        }
+        if (!journal.isEmpty()) {
+            plugin.getLogger().info(journal.size() + " region changes are still waiting to be stored");
+        }
+        return new OfflineQueue(store, journal, plugin.getConfig().getInt("storage.offline-queue-size", 10000), plugin.getLogger());
+    }
+
+    /**
+     * Runs off the server thread. While storage is down, or changes or loads are waiting for it,
+     * has the writer replay the queue and then retries the loads on the server thread.
+     */
+    private void checkStorage() {
+        CircuitBreaker breaker = plugin.getStorageBreaker();
+        if (breaker.getState() == CircuitBreaker.State.CLOSED && offlineQueue.isEmpty() && !deferredLoads) return;
+        
+        writeQueue.execute(() -> {
+            if (offlineQueue.replay() && deferredLoads) {
+                plugin.runSync(this::retryLoads);
+            }
+        });
+    }
+
+    private void retryLoads() {
+        if (!deferredLoads) return;
+        deferredLoads = false;
+        
+        if (!initialLoadDone) {
+            loadRegionsAsync(null, true);
+            return;
+        }
+        for (World world : plugin.getServer().getWorlds()) {
+            loadWorld(world);
+        }
+    }
 
+    private void createTables() {
+        try {
+            store.initialize();
         } catch (SQLException e) {
             plugin.getLogger().severe("Failed to create database tables: " + e.getMessage());
         }
     }
 
-    private void loadRegions() {
-        try (Connection conn = plugin.getConnection();
-             PreparedStatement stmt = conn.prepareStatement("SELECT * FROM regions")) {
-            
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                String name = rs.getString("name");
-                World world = plugin.getServer().getWorld(rs.getString("world"));
-                
-                if (world == null) continue;
-                
-                Location corner1 = new Location(world, 
-                    rs.getInt("corner1_x"), 
-                    rs.getInt("corner1_y"), 
-                    rs.getInt("corner1_z"));
-                Location corner2 = new Location(world, 
-                    rs.getInt("corner2_x"), 
-                    rs.getInt("corner2_y"), 
-                    rs.getInt("corner2_z"));
-                
-                Set<UUID> whitelist = loadWhitelist(name);
-                RegionFlags flags = loadFlags(name);
-                long createdAt = rs.getLong("created_at");
-                
-                Region region = new Region(name, world, corner1, corner2, whitelist, flags, createdAt);
-                regions.put(name, region);
-            }
-            
+    private long readLatestChangeSequence() {
+        try {
+            return store.getLatestChangeSequence();
         } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to load regions: " + e.getMessage());
+            plugin.getLogger().severe("Failed to read change log: " + e.getMessage());
+            return 0;
         }
     }
 
-    private Set<UUID> loadWhitelist(String regionName) {
-        Set<UUID> whitelist = new HashSet<>();
-        try (Connection conn = plugin.getConnection();
-             PreparedStatement stmt = conn.prepareStatement("SELECT player_uuid FROM region_whitelist WHERE region_name = ?")) {
-            
-            stmt.setString(1, regionName);
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                whitelist.add(UUID.fromString(rs.getString("player_uuid")));
-            }
-            
-        } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to load whitelist for region " + regionName + ": " + e.getMessage());
+    /**
+     * Loads the regions of every world that is currently loaded; the rest are loaded with their world.
+     */
+    private boolean loadRegions() {
+        return loadRegions(null);
+    }
+
+    public void loadWorld(World world) {
+        if (!unloadedRegions.containsValue(world.getName())) return;
+        if (!offlineQueue.isEmpty()) {
+            // The database is missing the queued changes; load once they are stored.
+            deferredLoads = true;
+            return;
         }
-        return whitelist;
+        loadRegionsAsync(world.getName(), false);
     }
 
-    private RegionFlags loadFlags(String regionName) {
-        RegionFlags flags = new RegionFlags();
-        try (Connection conn = plugin.getConnection();
-             PreparedStatement stmt = conn.prepareStatement("SELECT flag_name, flag_state FROM region_flags WHERE region_name = ?")) {
-            
-            stmt.setString(1, regionName);
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                String flagName = rs.getString("flag_name");
-                String flagState = rs.getString("flag_state");
-                RegionFlags.IFlag flag = RegionFlags.Flag.fromName(flagName);
-                if (flag != null) {
-                    flags.setFlag(flag, RegionFlags.FlagState.valueOf(flagState));
+    public void unloadWorld(World world) {
+        UUID worldId = world.getUID();
+        int unloaded = 0;
+        synchronized (writeLock) {
+            for (Iterator<Region> it = regions.values().iterator(); it.hasNext(); ) {
+                Region region = it.next();
+                if (!region.getWorldId().equals(worldId)) continue;
+                
+                it.remove();
+                unloadedRegions.put(region.getName(), region.getWorldName());
+                for (UUID member : region.getWhitelist()) {
+                    removeMembership(member, region.getName());
                 }
+                unloaded++;
             }
-            
+            index.removeWorld(worldId);
+        }
+        
+        if (unloaded > 0) {
+            plugin.getLogger().info("Unloaded " + unloaded + " regions of world " + world.getName());
+        }
+    }
+
+    /**
+     * Reads on the calling thread; only used while the plugin starts.
+     *
+     * @return false if the store could not be read
+     */
+    private boolean loadRegions(String worldName) {
+        long started = System.nanoTime();
+        StoredLoad stored;
+        try {
+            stored = readStored(worldName);
         } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to load flags for region " + regionName + ": " + e.getMessage());
+            plugin.getLogger().severe("Failed to load regions: " + e.getMessage());
+            return false;
         }
-        return flags;
+        publishStored(stored, worldName, started);
+        return true;
     }
 
-    public boolean createRegion(String name, Location corner1, Location corner2) {
-        if (regions.containsKey(name)) return false;
+    /**
+     * Reads on the I/O executor once earlier writes are stored, then publishes on the server thread.
+     *
+     * @param initialize also create the tables first, for an initial load that failed
+     */
+    private void loadRegionsAsync(String worldName, boolean initialize) {
+        long started = System.nanoTime();
+        IoExecutor io = plugin.getIoExecutor();
+        io.submit(() -> {
+            if (initialize) {
+                store.initialize();
+            }
+            writeQueue.awaitPending(WORLD_LOAD_WRITE_TIMEOUT_MILLIS);
+            return readStored(worldName);
+        }).whenCompleteAsync((stored, error) -> {
+            if (error != null) {
+                plugin.getLogger().severe("Failed to load regions: " + error);
+                deferredLoads = true;
+                return;
+            }
+            if (initialize) {
+                initialLoadDone = true;
+            }
+            publishStored(stored, worldName, started);
+        }, io.mainThread());
+    }
+
+    /**
+     * @param worldName only read this world's regions, or null for all of them
+     */
+    private StoredLoad readStored(String worldName) throws SQLException {
+        List<StoredRegion> stored = new ArrayList<>();
+        int queries = worldName == null ? store.loadAll(stored::add) : store.streamByWorld(worldName, stored::add);
+        return new StoredLoad(stored, queries);
+    }
+
+    private void publishStored(StoredLoad stored, String worldName, long started) {
+        List<Region> loaded = new ArrayList<>(stored.regions().size());
+        Map<String, String> unloaded = new HashMap<>();
+        for (StoredRegion region : stored.regions()) {
+            addLoaded(region, loaded, unloaded);
+        }
+        publish(loaded, unloaded);
         
-        Region region = new Region(name, corner1.getWorld(), corner1, corner2);
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        String scope = worldName != null ? " of world " + worldName : "";
+        plugin.getLogger().info("Loaded " + loaded.size() + " regions" + scope + " in " + elapsedMillis + " ms using "
+            + stored.queries() + " queries");
+    }
+
+    private record StoredLoad(List<StoredRegion> regions, int queries) {
+    }
+
+    /**
+     * Turns a stored region into a live one if its world is loaded, otherwise just notes its name
+     * and world in {@code unloaded}, for {@link #publish} to reserve.
+     */
+    private void addLoaded(StoredRegion stored, List<Region> loaded, Map<String, String> unloaded) {
+        World world = plugin.getServer().getWorld(stored.worldName());
+        if (world == null) {
+            unloaded.put(stored.name(), stored.worldName());
+            return;
+        }
         
-        try (Connection conn = plugin.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(
-                 "INSERT INTO regions (name, world, corner1_x, corner1_y, corner1_z, corner2_x, corner2_y, corner2_z, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
-            
-            stmt.setString(1, name);
-            stmt.setString(2, corner1.getWorld().getName());
-            stmt.setInt(3, corner1.getBlockX());
-            stmt.setInt(4, corner1.getBlockY());
-            stmt.setInt(5, corner1.getBlockZ());
-            stmt.setInt(6, corner2.getBlockX());
-            stmt.setInt(7, corner2.getBlockY());
-            stmt.setInt(8, corner2.getBlockZ());
-            stmt.setLong(9, region.getCreatedAt());
-            
-            stmt.executeUpdate();
-            
-            regions.put(name, region);
-            
-            saveFlags(name, region.getFlags());
-            
-            if (plugin.getConfig().getBoolean("features.show-particles", true)) {
-                showRegionParticles(region);
+        Map<RegionFlags.IFlag, RegionFlags.FlagState> overrides = new HashMap<>(stored.flags().size() * 2);
+        for (Map.Entry<String, RegionFlags.FlagState> flag : stored.flags().entrySet()) {
+            RegionFlags.IFlag resolved = RegionFlags.Flag.fromName(flag.getKey());
+            overrides.put(resolved != null ? resolved : new RegionFlags.CustomFlag(flag.getKey()), flag.getValue());
+        }
+        
+        Location corner1 = new Location(world, stored.corner1X(), stored.corner1Y(), stored.corner1Z());
+        Location corner2 = new Location(world, stored.corner2X(), stored.corner2Y(), stored.corner2Z());
+        loaded.add(new Region(stored.name(), world, corner1, corner2,
+            stored.whitelist(), RegionFlags.of(overrides), stored.createdAt(), stored.priority()));
+    }
+
+    /**
+     * Replaces the named regions with their stored state after another server changed them. Names
+     * without a stored region were deleted or renamed away.
+     *
+     * @param writeGeneration {@link #getWriteGeneration()} from before {@code current} was read
+     * @return false, changing nothing, if a local change was made since then; it may be newer
+     *         than what was read
+     */
+    public boolean applyRemoteChanges(Collection<String> names, List<StoredRegion> current, long writeGeneration) {
+        List<Region> loaded = new ArrayList<>(current.size());
+        Map<String, String> unloaded = new HashMap<>();
+        for (StoredRegion stored : current) {
+            addLoaded(stored, loaded, unloaded);
+        }
+        
+        synchronized (writeLock) {
+            // Local changes are queued under the same lock, so none can slip in after this check.
+            if (getWriteGeneration() != writeGeneration) return false;
+            for (String name : names) {
+                Region local = regions.remove(name);
+                if (local != null) {
+                    index.remove(local);
+                    for (UUID member : local.getWhitelist()) {
+                        removeMembership(member, name);
+                    }
+                }
+                unloadedRegions.remove(name);
             }
-            
+            publish(loaded, unloaded);
             return true;
-            
-        } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to create region " + name + ": " + e.getMessage());
-            return false;
         }
     }
 
-    public boolean deleteRegion(String name) {
-        Region region = regions.get(name);
-        if (region == null) return false;
+    private void publish(Collection<Region> loaded, Map<String, String> unloaded) {
+        synchronized (writeLock) {
+            unloadedRegions.putAll(unloaded);
+            for (Region region : loaded) {
+                unloadedRegions.remove(region.getName());
+                Region previous = regions.put(region.getName(), region);
+                if (previous != null) {
+                    // Loaded again after a failed load, while the region already existed here.
+                    index.remove(previous);
+                    for (UUID member : previous.getWhitelist()) {
+                        removeMembership(member, previous.getName());
+                    }
+                }
+                for (UUID member : region.getWhitelist()) {
+                    addMembership(member, region.getName());
+                }
+            }
+            index.addAll(loaded);
+        }
+    }
+
+    /**
+     * Derives the next version of a region and publishes it to the region map and the index.
+     * Readers see either the old or the new snapshot, never a mix, and writers take turns so each
+     * one builds on the latest version.
+     *
+     * @return the published region, the current one if {@code change} returned it unchanged, or
+     *         null if there is no such region
+     */
+    private Region update(String regionName, UnaryOperator<Region> change) {
+        synchronized (writeLock) {
+            Region current = regions.get(regionName);
+            if (current == null) return null;
+            
+            Region updated = change.apply(current);
+            if (updated != current) {
+                regions.put(regionName, updated);
+                index.replace(current, updated);
+            }
+            return updated;
+        }
+    }
+
+    /**
+     * Loads from the shutdown snapshot if the database has not changed since it was written.
+     *
+     * @return false if the regions still have to be loaded from the database
+     */
+    private boolean loadSnapshot() {
+        if (!plugin.getConfig().getBoolean("storage.snapshot", true)) return false;
         
-        try (Connection conn = plugin.getConnection();
-             PreparedStatement stmt = conn.prepareStatement("DELETE FROM regions WHERE name = ?")) {
-            
-            stmt.setString(1, name);
-            stmt.executeUpdate();
-            
-            regions.remove(name);
-            
-            return true;
-            
+        long started = System.nanoTime();
+        RegionSnapshot snapshot;
+        try {
+            snapshot = RegionSnapshot.read(getSnapshotFile());
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to read region snapshot: " + e.getMessage());
+            return false;
+        }
+        if (snapshot == null) return false;
+        
+        long dataVersion;
+        try {
+            dataVersion = store.getDataVersion();
         } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to delete region " + name + ": " + e.getMessage());
+            plugin.getLogger().severe("Failed to read data version: " + e.getMessage());
             return false;
         }
+        if (dataVersion != snapshot.getDataVersion()) {
+            plugin.getLogger().info("Region snapshot is out of date, loading from the database");
+            return false;
+        }
+        
+        List<Region> loaded = new ArrayList<>(snapshot.getRegions().size());
+        Map<String, String> unloaded = new HashMap<>(snapshot.getUnloadedRegions());
+        for (StoredRegion stored : snapshot.getRegions()) {
+            addLoaded(stored, loaded, unloaded);
+        }
+        publish(loaded, unloaded);
+        
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        plugin.getLogger().info("Loaded " + loaded.size() + " regions from snapshot in " + elapsedMillis + " ms");
+        
+        // Worlds that were unloaded when the snapshot was taken but are loaded now.
+        for (World world : plugin.getServer().getWorlds()) {
+            loadWorld(world);
+        }
+        return true;
     }
 
-    public boolean addToWhitelist(String regionName, UUID playerId) {
-        Region region = regions.get(regionName);
-        if (region == null) return false;
+    private void saveSnapshot() {
+        if (!plugin.getConfig().getBoolean("storage.snapshot", true)) return;
         
-        try (Connection conn = plugin.getConnection();
-             PreparedStatement stmt = conn.prepareStatement("INSERT INTO region_whitelist (region_name, player_uuid) VALUES (?, ?)")) {
-            
-            stmt.setString(1, regionName);
-            stmt.setString(2, playerId.toString());
-            stmt.executeUpdate();
+        Path file = getSnapshotFile();
+        try {
+            if (unsavedChanges || writeQueue.pendingCount() > 0 || !offlineQueue.isEmpty()) {
+                // Memory no longer matches the database, so neither can a snapshot of it.
+                Files.deleteIfExists(file);
+                return;
+            }
             
-            region.addToWhitelist(playerId);
-            return true;
+            // The version is read first: once caught up, every change it counts has been applied here.
+            long dataVersion = store.getDataVersion();
+            SyncManager sync = plugin.getSyncManager();
+            if (sync != null && !sync.catchUp()) {
+                Files.deleteIfExists(file);
+                return;
+            }
             
-        } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to add player to whitelist: " + e.getMessage());
-            return false;
+            RegionSnapshot.write(file, dataVersion, regions.values(), unloadedRegions);
+        } catch (IOException | SQLException e) {
+            plugin.getLogger().warning("Failed to write region snapshot: " + e.getMessage());
         }
     }
 
-    public boolean removeFromWhitelist(String regionName, UUID playerId) {
-        Region region = regions.get(regionName);
-        if (region == null) return false;
+    private Path getSnapshotFile() {
+        return plugin.getDataFolder().toPath().resolve(SNAPSHOT_FILE);
+    }
+
+    public CompletableFuture<Boolean> createRegion(String name, Location corner1, Location corner2) {
+        Region region = new Region(name, corner1.getWorld(), corner1, corner2);
+        CompletableFuture<Boolean> stored;
+        synchronized (writeLock) {
+            if (hasRegion(name)) return CompletableFuture.completedFuture(false);
+            regions.put(name, region);
+            index.add(region);
+            stored = persist(RegionChange.create(region));
+        }
         
-        try (Connection conn = plugin.getConnection();
-             PreparedStatement stmt = conn.prepareStatement("DELETE FROM region_whitelist WHERE region_name = ? AND player_uuid = ?")) {
-            
-            stmt.setString(1, regionName);
-            stmt.setString(2, playerId.toString());
-            stmt.executeUpdate();
-            
-            region.removeFromWhitelist(playerId);
-            return true;
-            
-        } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to remove player from whitelist: " + e.getMessage());
-            return false;
+        if (plugin.getConfig().getBoolean("features.show-particles", true)) {
+            showRegionParticles(region);
         }
+        return stored;
     }
 
-    private void saveFlags(String regionName, RegionFlags flags) {
-        try (Connection conn = plugin.getConnection()) {
-            try (PreparedStatement deleteStmt = conn.prepareStatement("DELETE FROM region_flags WHERE region_name = ?")) {
-                deleteStmt.setString(1, regionName);
-                deleteStmt.executeUpdate();
+    /**
+     * Also deletes a region whose world is not loaded, so one whose world is gone for good does
+     * not keep its name reserved forever.
+     */
+    public CompletableFuture<Boolean> deleteRegion(String name) {
+        synchronized (writeLock) {
+            Region region = regions.remove(name);
+            if (region == null) {
+                if (unloadedRegions.remove(name) == null) return CompletableFuture.completedFuture(false);
+                return persist(RegionChange.delete(name));
             }
             
-            try (PreparedStatement insertStmt = conn.prepareStatement(
-                "INSERT INTO region_flags (region_name, flag_name, flag_state) VALUES (?, ?, ?)")) {
-                
-                for (Map.Entry<RegionFlags.IFlag, RegionFlags.FlagState> entry : flags.getAllFlags().entrySet()) {
-                    insertStmt.setString(1, regionName);
-                    insertStmt.setString(2, entry.getKey().getName());
-                    insertStmt.setString(3, entry.getValue().name());
-                    insertStmt.executeUpdate();
-                }
+            index.remove(region);
+            for (UUID member : region.getWhitelist()) {
+                removeMembership(member, name);
             }
-            
-        } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to save flags for region " + regionName + ": " + e.getMessage());
+            return persist(RegionChange.delete(name));
+        }
+    }
+
+    public CompletableFuture<Boolean> addToWhitelist(String regionName, UUID playerId) {
+        synchronized (writeLock) {
+            if (update(regionName, region -> region.withWhitelisted(playerId)) == null) {
+                return CompletableFuture.completedFuture(false);
+            }
+            addMembership(playerId, regionName);
+            return persist(RegionChange.whitelistAdd(regionName, playerId));
+        }
+    }
+
+    public CompletableFuture<Boolean> removeFromWhitelist(String regionName, UUID playerId) {
+        synchronized (writeLock) {
+            if (update(regionName, region -> region.withoutWhitelisted(playerId)) == null) {
+                return CompletableFuture.completedFuture(false);
+            }
+            removeMembership(playerId, regionName);
+            return persist(RegionChange.whitelistRemove(regionName, playerId));
+        }
+    }
+
+    public void shutdown() {
+        healthCheck.cancel();
+        writeQueue.shutdown(30);
+        if (!offlineQueue.isEmpty() && !offlineQueue.replay()) {
+            plugin.getLogger().warning(offlineQueue.size() + " region changes stay queued in " + OFFLINE_QUEUE_FILE + " until the next start");
         }
+        saveSnapshot();
+    }
+
+    private CompletableFuture<Boolean> persist(RegionChange change) {
+        return writeQueue.submit(change).whenComplete((stored, error) -> {
+            if (error != null) {
+                unsavedChanges = true;
+            }
+        }).thenApply(stored -> true);
     }
 
     private void showRegionParticles(Region region) {
-        Location corner1 = region.getCorner1();
-        Location corner2 = region.getCorner2();
+        World world = region.getWorld();
+        if (world == null) return;
+        int minX = region.getMinX();
+        int maxX = region.getMaxX();
+        int minY = region.getMinY();
+        int maxY = region.getMaxY();
+        int minZ = region.getMinZ();
+        int maxZ = region.getMaxZ();
         
-        int minX = Math.min(corner1.getBlockX(), corner2.getBlockX());
-        int maxX = Math.max(corner1.getBlockX(), corner2.getBlockX());
-        int minY = Math.min(corner1.getBlockY(), corner2.getBlockY());
-        int maxY = Math.max(corner1.getBlockY(), corner2.getBlockY());
-        int minZ = Math.min(corner1.getBlockZ(), corner2.getBlockZ());
-        int maxZ = Math.max(corner1.getBlockZ(), corner2.getBlockZ());
-        
-        try {
-            for (int x = minX; x <= maxX; x += Math.max(1, (maxX - minX) / 10)) {
-                for (int y = minY; y <= maxY; y += Math.max(1, (maxY - minY) / 10)) {
-                    for (int z = minZ; z <= maxZ; z += Math.max(1, (maxZ - minZ) / 10)) {
-                        if (x == minX || x == maxX || y == minY || y == maxY || z == minZ || z == maxZ) {
-                            Location particleLoc = new Location(corner1.getWorld(), x, y, z);
-                            corner1.getWorld().spawnParticle(org.bukkit.Particle.END_ROD, particleLoc, 1, 0, 0, 0, 0);
-                        }
+        Map<Long, List<Location>> byChunk = new HashMap<>();
+        for (int x = minX; x <= maxX; x += Math.max(1, (maxX - minX) / 10)) {
+            for (int y = minY; y <= maxY; y += Math.max(1, (maxY - minY) / 10)) {
+                for (int z = minZ; z <= maxZ; z += Math.max(1, (maxZ - minZ) / 10)) {
+                    if (x == minX || x == maxX || y == minY || y == maxY || z == minZ || z == maxZ) {
+                        byChunk.computeIfAbsent(RegionIndex.chunkKey(x >> 4, z >> 4), key -> new ArrayList<>())
+                            .add(new Location(world, x, y, z));
                     }
                 }
             }
-        } catch (Exception e) {
-            plugin.getLogger().warning("Failed to show region particles: " + e.getMessage());
+        }
+        
+        // Each chunk's particles are spawned by the thread that owns it on Folia.
+        for (List<Location> locations : byChunk.values()) {
+            plugin.runAt(locations.get(0), () -> {
+                try {
+                    for (Location particleLoc : locations) {
+                        world.spawnParticle(org.bukkit.Particle.END_ROD, particleLoc, 1, 0, 0, 0, 0);
+                    }
+                } catch (Exception e) {
+                    plugin.getLogger().warning("Failed to show region particles: " + e.getMessage());
+                }
+            });
         }
     }
 
-    public boolean setFlag(String regionName, RegionFlags.IFlag flag, RegionFlags.FlagState state) {
-        Region region = regions.get(regionName);
-        if (region == null) return false;
-        
-        region.getFlags().setFlag(flag, state);
-        saveFlags(regionName, region.getFlags());
-        return true;
+    public CompletableFuture<Boolean> setFlag(String regionName, RegionFlags.IFlag flag, RegionFlags.FlagState state) {
+        synchronized (writeLock) {
+            Region region = update(regionName, current -> current.withFlags(current.getFlags().withFlag(flag, state)));
+            if (region == null) return CompletableFuture.completedFuture(false);
+            
+            Map<RegionFlags.IFlag, RegionFlags.FlagState> changes = new HashMap<>();
+            changes.put(flag, state);
+            return persist(RegionChange.flags(region, changes));
+        }
+    }
+
+    /**
+     * @return whether the name belongs to a region, including one whose world is not loaded
+     */
+    public boolean hasRegion(String name) {
+        return regions.containsKey(name) || unloadedRegions.containsKey(name);
+    }
+
+    /**
+     * @return the change log position the loaded regions are at least as new as
+     */
+    public long getLoadedSequence() {
+        return loadedSequence;
+    }
+
+    /**
+     * @return as {@link WriteBehindQueue#idleGeneration()}, and also -1 while changes wait in the offline queue
+     */
+    public long getWriteGeneration() {
+        return offlineQueue.isEmpty() ? writeQueue.idleGeneration() : -1;
+    }
+
+    public Map<String, String> getStats() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("Loaded regions", String.valueOf(regions.size()));
+        stats.put("Regions in unloaded worlds", String.valueOf(unloadedRegions.size()));
+        stats.put("Pending writes", String.valueOf(writeQueue.pendingCount()));
+        stats.put("Offline queue", offlineQueue.size() + "/" + offlineQueue.getCapacity());
+        plugin.getIoExecutor().describe(stats);
+        SyncManager sync = plugin.getSyncManager();
+        if (sync != null) {
+            stats.putAll(sync.getStats());
+        }
+        stats.putAll(store.getStats());
+        return stats;
+    }
+
+    public RegionIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return a counter that moves whenever any region is added, removed or replaced; anything
+     *         caching per-region state can key on it
+     */
+    public long getEpoch() {
+        return index.getVersion();
     }
 
     public Region getRegion(String name) {
@@ -297,90 +595,195 @@ public class RegionManager {
     }
 
     public Region getRegionAt(Location location) {
-        return regions.values().stream()
-                .filter(region -> region.contains(location))
-                .findFirst()
-                .orElse(null);
+        return getRegionAt(location.getWorld(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    public Region getRegionAt(World world, int x, int y, int z) {
+        return index.getCell(world, x, z).getRegionAt(x, y, z);
+    }
+
+    public List<Region> getRegionsAt(Location location) {
+        int x = location.getBlockX();
+        int y = location.getBlockY();
+        int z = location.getBlockZ();
+        RegionIndex.Cell cell = index.getCell(location.getWorld(), x, z);
+        // Counted first so the one array is sized exactly and can be handed out without a copy.
+        int count = 0;
+        for (int i = cell.indexOf(x, y, z, 0); i >= 0; i = cell.indexOf(x, y, z, i + 1)) {
+            count++;
+        }
+        if (count == 0) return List.of();
+        
+        Region[] matches = new Region[count];
+        int found = 0;
+        for (int i = cell.indexOf(x, y, z, 0); i >= 0; i = cell.indexOf(x, y, z, i + 1)) {
+            matches[found++] = cell.get(i);
+        }
+        return Collections.unmodifiableList(Arrays.asList(matches));
     }
 
     public Collection<Region> getAllRegions() {
         return regions.values();
     }
 
+    public List<Region> getRegionsFor(UUID playerId) {
+        Set<String> names = memberships.get(playerId);
+        if (names == null) return List.of();
+        
+        List<Region> playerRegions = new ArrayList<>(names.size());
+        for (String name : names) {
+            Region region = regions.get(name);
+            if (region != null) {
+                playerRegions.add(region);
+            }
+        }
+        return playerRegions;
+    }
+
+    private void addMembership(UUID playerId, String regionName) {
+        memberships.computeIfAbsent(playerId, id -> ConcurrentHashMap.newKeySet()).add(regionName);
+    }
+
+    private void removeMembership(UUID playerId, String regionName) {
+        memberships.computeIfPresent(playerId, (id, names) -> {
+            names.remove(regionName);
+            return names.isEmpty() ? null : names;
+        });
+    }
+
     public boolean hasPermission(Player player, Location location, RegionFlags.IFlag flag) {
-        if (player.hasPermission("region.bypass")) return true;
-        Region region = getRegionAt(location);
+        return hasPermission(player, location.getWorld(), location.getBlockX(), location.getBlockY(), location.getBlockZ(), flag);
+    }
+
+    public boolean hasPermission(Player player, Block block, RegionFlags.IFlag flag) {
+        return hasPermission(player, block.getWorld(), block.getX(), block.getY(), block.getZ(), flag);
+    }
+
+    public boolean hasPermission(Player player, World world, int x, int y, int z, RegionFlags.IFlag flag) {
+        PlayerSession session = plugin.getSessionManager().getSession(player);
+        if (session.hasBypass(player)) return true;
+        Region region = getRegionAt(world, x, y, z);
         if (region == null) return true;
-        boolean isWhitelisted = region.isWhitelisted(player.getUniqueId());
-        return region.getFlags().isAllowed(flag, isWhitelisted);
+        return session.isAllowed(region, flag, player.getUniqueId());
+    }
+
+    /**
+     * For things no player is doing, such as fire or explosions, so WHITELIST counts as not allowed.
+     */
+    public boolean isAllowed(Block block, RegionFlags.IFlag flag) {
+        Region region = getRegionAt(block.getWorld(), block.getX(), block.getY(), block.getZ());
+        return region == null || region.getFlags().isAllowed(flag, false);
     }
 
-    public boolean renameRegion(String oldName, String newName) {
-        Region region = regions.get(oldName);
-        if (region == null) return false;
+    /**
+     * Takes the blocks {@code flag} protects out of {@code blocks}, such as an explosion's block
+     * list, in one pass. The index is probed once per chunk, through a small table keyed by the
+     * primitive chunk key since the list comes shuffled; blocks in chunks without regions are kept
+     * without any further check.
+     *
+     * @param blocks a random-access list, compacted in place
+     */
+    public void removeProtected(World world, List<Block> blocks, RegionFlags.IFlag flag) {
+        if (blocks.isEmpty()) return;
         
-        try (Connection conn = plugin.getConnection()) {
-            try (PreparedStatement stmt = conn.prepareStatement("UPDATE regions SET name = ? WHERE name = ?")) {
-                stmt.setString(1, newName);
-                stmt.setString(2, oldName);
-                stmt.executeUpdate();
+        int mask = Integer.highestOneBit(blocks.size() * 2 - 1) * 2 - 1;
+        long[] chunkKeys = new long[mask + 1];
+        RegionIndex.Cell[] cells = new RegionIndex.Cell[mask + 1];
+        int kept = 0;
+        for (int i = 0; i < blocks.size(); i++) {
+            Block block = blocks.get(i);
+            int x = block.getX();
+            int z = block.getZ();
+            long chunkKey = RegionIndex.chunkKey(x >> 4, z >> 4);
+            long hash = chunkKey * 0x9E3779B97F4A7C15L;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (cells[slot] != null && chunkKeys[slot] != chunkKey) {
+                slot = (slot + 1) & mask;
             }
-            
-            try (PreparedStatement stmt = conn.prepareStatement("UPDATE region_whitelist SET region_name = ? WHERE region_name = ?")) {
-                stmt.setString(1, newName);
-                stmt.setString(2, oldName);
-                stmt.executeUpdate();
+            if (cells[slot] == null) {
+                chunkKeys[slot] = chunkKey;
+                cells[slot] = index.getCell(world, x, z);
             }
             
-            try (PreparedStatement stmt = conn.prepareStatement("UPDATE region_flags SET region_name = ? WHERE region_name = ?")) {
-                stmt.setString(1, newName);
-                stmt.setString(2, oldName);
-                stmt.executeUpdate();
+            RegionIndex.Cell cell = cells[slot];
+            if (!cell.isEmpty()) {
+                Region region = cell.getRegionAt(x, block.getY(), z);
+                if (region != null && !region.getFlags().isAllowed(flag, false)) continue;
             }
-            
-            regions.remove(oldName);
-            regions.put(newName, region);
-            
-            return true;
-            
-        } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to rename region " + oldName + " to " + newName + ": " + e.getMessage());
-            return false;
+            blocks.set(kept++, block);
         }
+        blocks.subList(kept, blocks.size()).clear();
     }
 
-    public boolean redefineRegion(String regionName, Location newCorner1, Location newCorner2) {
-        Region oldRegion = regions.get(regionName);
-        if (oldRegion == null) return false;
+    /**
+     * Whether {@code flag} lets something move from one block to another, such as flowing water or
+     * a pushed block. Moving inside one region or outside all of them is always allowed; crossing
+     * a boundary needs the flag on both the region left and the region entered.
+     * <p>
+     * Within one chunk that no region boundary runs through, this returns without looking at any region.
+     */
+    public boolean canCross(World world, int fromX, int fromY, int fromZ, int toX, int toY, int toZ, RegionFlags.IFlag flag) {
+        RegionIndex.Cell fromCell = index.getCell(world, fromX, fromZ);
+        RegionIndex.Cell toCell;
+        if ((fromX >> 4) == (toX >> 4) && (fromZ >> 4) == (toZ >> 4)) {
+            if (!fromCell.hasEdge(Math.min(fromY, toY), Math.max(fromY, toY))) return true;
+            toCell = fromCell;
+        } else {
+            toCell = index.getCell(world, toX, toZ);
+            if (fromCell.isEmpty() && toCell.isEmpty()) return true;
+        }
         
-        try (Connection conn = plugin.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(
-                 "UPDATE regions SET corner1_x = ?, corner1_y = ?, corner1_z = ?, corner2_x = ?, corner2_y = ?, corner2_z = ? WHERE name = ?")) {
-            
-            stmt.setInt(1, newCorner1.getBlockX());
-            stmt.setInt(2, newCorner1.getBlockY());
-            stmt.setInt(3, newCorner1.getBlockZ());
-            stmt.setInt(4, newCorner2.getBlockX());
-            stmt.setInt(5, newCorner2.getBlockY());
-            stmt.setInt(6, newCorner2.getBlockZ());
-            stmt.setString(7, regionName);
-            
-            stmt.executeUpdate();
-            
-            Region newRegion = new Region(regionName, oldRegion.getWorld(), 
-                newCorner1, newCorner2, oldRegion.getWhitelist(), oldRegion.getFlags(), oldRegion.getCreatedAt());
-            
-            regions.put(regionName, newRegion);
-            
-            if (plugin.getConfig().getBoolean("features.show-particles", true)) {
-                showRegionParticles(newRegion);
+        Region from = fromCell.getRegionAt(fromX, fromY, fromZ);
+        Region to = toCell.getRegionAt(toX, toY, toZ);
+        if (from == to) return true;
+        return (from == null || from.getFlags().isAllowed(flag, false))
+            && (to == null || to.getFlags().isAllowed(flag, false));
+    }
+
+    public CompletableFuture<Boolean> renameRegion(String oldName, String newName) {
+        synchronized (writeLock) {
+            Region region = regions.get(oldName);
+            if (hasRegion(newName)) return CompletableFuture.completedFuture(false);
+            if (region == null) {
+                // A region of an unloaded world only has its name reserved here.
+                String worldName = unloadedRegions.remove(oldName);
+                if (worldName == null) return CompletableFuture.completedFuture(false);
+                unloadedRegions.put(newName, worldName);
+                return persist(RegionChange.rename(oldName, newName));
             }
             
-            return true;
-            
-        } catch (SQLException e) {
-            plugin.getLogger().severe("Failed to redefine region " + regionName + ": " + e.getMessage());
-            return false;
+            Region renamed = region.withName(newName);
+            regions.put(newName, renamed);
+            regions.remove(oldName);
+            index.replace(region, renamed);
+            for (UUID member : region.getWhitelist()) {
+                removeMembership(member, oldName);
+                addMembership(member, newName);
+            }
+            return persist(RegionChange.rename(oldName, newName));
+        }
+    }
+
+    public CompletableFuture<Boolean> redefineRegion(String regionName, Location newCorner1, Location newCorner2) {
+        Region newRegion;
+        CompletableFuture<Boolean> stored;
+        synchronized (writeLock) {
+            newRegion = update(regionName, region -> region.withCorners(newCorner1, newCorner2));
+            if (newRegion == null) return CompletableFuture.completedFuture(false);
+            stored = persist(RegionChange.redefine(newRegion));
+        }
+        
+        if (plugin.getConfig().getBoolean("features.show-particles", true)) {
+            showRegionParticles(newRegion);
+        }
+        return stored;
+    }
+
+    public CompletableFuture<Boolean> setPriority(String regionName, int priority) {
+        synchronized (writeLock) {
+            Region newRegion = update(regionName, region -> region.withPriority(priority));
+            if (newRegion == null) return CompletableFuture.completedFuture(false);
+            return persist(RegionChange.priority(newRegion));
         }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,47 @@
+package com.alexetrey.region.managers;
+
+import com.alexetrey.region.RegionPlugin;
+import com.alexetrey.region.data.PlayerSession;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SessionManager {
+    private final RegionPlugin plugin;
+    private final Map<UUID, PlayerSession> sessions;
+
+    public SessionManager(RegionPlugin plugin) {
+        this.plugin = plugin;
+        this.sessions = new ConcurrentHashMap<>();
+    }
+
+    public PlayerSession getSession(Player player) {
+        return sessions.computeIfAbsent(player.getUniqueId(), id -> createSession(player));
+    }
+
+    public void startSession(Player player) {
+        sessions.put(player.getUniqueId(), createSession(player));
+    }
+
+    public void endSession(Player player) {
+        sessions.remove(player.getUniqueId());
+    }
+
+    public void invalidatePermissions(Player player) {
+        PlayerSession session = sessions.get(player.getUniqueId());
+        if (session != null) {
+            session.invalidatePermissions();
+        }
+    }
+
+    private PlayerSession createSession(Player player) {
+        PlayerSession session = new PlayerSession();
+        Location location = player.getLocation();
+        session.moveTo(plugin.getRegionManager().getIndex(), location.getWorld(),
+            location.getBlockX(), location.getBlockY(), location.getBlockZ());
+        return session;
+    }
+}
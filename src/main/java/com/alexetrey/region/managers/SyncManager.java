@@ -0,0 +1,138 @@
+package com.alexetrey.region.managers;
+
+import com.alexetrey.region.IoExecutor;
+import com.alexetrey.region.RegionPlugin;
+import com.alexetrey.region.storage.ChangeLogEntry;
+import com.alexetrey.region.storage.RegionStore;
+import com.alexetrey.region.storage.StorageUnavailableException;
+import com.alexetrey.region.storage.StoredRegion;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Follows the change log that every server sharing the database writes to, and applies other
+ * servers' changes to the regions they touched. Reading happens on the {@link IoExecutor}; only
+ * the swap of the affected regions runs on the global region thread.
+ */
+public class SyncManager {
+    private static final int BATCH_LIMIT = 500;
+    private static final int CATCH_UP_ROUNDS = 20;
+
+    private final RegionPlugin plugin;
+    private final RegionStore store;
+    private final AtomicBoolean polling = new AtomicBoolean();
+    private final AtomicLong updatedRegions = new AtomicLong();
+    private volatile long lastSequence;
+    private ScheduledTask task;
+
+    private record Batch(long fromSequence, long toSequence, long writeGeneration, Set<String> names, List<StoredRegion> current) {
+    }
+
+    public SyncManager(RegionPlugin plugin, long startSequence) {
+        this.plugin = plugin;
+        this.store = plugin.getRegionStore();
+        this.lastSequence = startSequence;
+    }
+
+    public void start(long intervalTicks) {
+        task = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, scheduled -> poll(), intervalTicks, intervalTicks);
+    }
+
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * Applies whatever is left in the change log on the calling thread; used on shutdown.
+     *
+     * @return whether the regions in memory now match everything logged so far
+     */
+    public boolean catchUp() {
+        try {
+            for (int i = 0; i < CATCH_UP_ROUNDS; i++) {
+                Batch batch = fetch();
+                if (batch == null) {
+                    return store.getLatestChangeSequence() == lastSequence;
+                }
+                apply(batch);
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().warning("Failed to read region changes: " + e.getMessage());
+        }
+        return false;
+    }
+
+    public Map<String, String> getStats() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("Sync position", String.valueOf(lastSequence));
+        stats.put("Regions updated by other servers", String.valueOf(updatedRegions.get()));
+        return stats;
+    }
+
+    private void poll() {
+        if (!polling.compareAndSet(false, true)) return;
+
+        IoExecutor io = plugin.getIoExecutor();
+        io.submit(this::fetch).whenCompleteAsync((batch, error) -> {
+            try {
+                if (batch != null) {
+                    apply(batch);
+                } else if (error != null && !(error instanceof StorageUnavailableException)) {
+                    // Unavailable storage was already reported when it went down.
+                    plugin.getLogger().warning("Failed to read region changes: " + error);
+                }
+            } finally {
+                polling.set(false);
+            }
+        }, io.mainThread());
+    }
+
+    /**
+     * @return the next changes with the current state of the regions they touched, or null if
+     *         there is nothing new or local writes are in flight
+     */
+    private Batch fetch() throws SQLException {
+        // Regions read while one of our own writes is half done would miss it.
+        long writeGeneration = plugin.getRegionManager().getWriteGeneration();
+        if (writeGeneration < 0) return null;
+
+        long from = lastSequence;
+        List<ChangeLogEntry> entries = store.readChangesSince(from, BATCH_LIMIT);
+        if (entries.isEmpty()) return null;
+
+        String nodeId = store.getNodeId();
+        Set<String> names = new LinkedHashSet<>();
+        for (ChangeLogEntry entry : entries) {
+            if (nodeId.equals(entry.nodeId())) continue;
+            names.add(entry.regionName());
+            if (entry.newName() != null) {
+                names.add(entry.newName());
+            }
+        }
+
+        List<StoredRegion> current = names.isEmpty() ? List.of() : store.loadByNames(names);
+        return new Batch(from, entries.get(entries.size() - 1).sequence(), writeGeneration, names, current);
+    }
+
+    private void apply(Batch batch) {
+        if (batch.fromSequence() != lastSequence) return;
+
+        if (!batch.names().isEmpty()) {
+            // A local change since the read may be newer than what was read; read again next time.
+            if (!plugin.getRegionManager().applyRemoteChanges(batch.names(), batch.current(), batch.writeGeneration())) return;
+            updatedRegions.addAndGet(batch.names().size());
+        }
+        lastSequence = batch.toSequence();
+    }
+}
@@ -7,9 +7,9 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class WandManager {
     private final RegionPlugin plugin;
@@ -18,8 +18,8 @@ public class WandManager {
 
     public WandManager(RegionPlugin plugin) {
         this.plugin = plugin;
-        this.corner1 = new HashMap<>();
-        this.corner2 = new HashMap<>();
+        this.corner1 = new ConcurrentHashMap<>();
+        this.corner2 = new ConcurrentHashMap<>();
     }
 
     public void giveWand(Player player) {
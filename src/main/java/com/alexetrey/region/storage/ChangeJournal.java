@@ -0,0 +1,235 @@
+package com.alexetrey.region.storage;
+
+import com.alexetrey.region.data.RegionFlags;
+import com.alexetrey.region.data.UUIDSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Region changes waiting on disk, oldest first. Entries are appended and synced before
+ * {@link #append} returns; taking entries off the front rewrites the file. Only value-carrying
+ * changes are accepted: deletes, renames, whitelist entries and restores.
+ */
+public class ChangeJournal {
+    private static final int MAGIC = 0x52474E51; // "RGNQ"
+    private static final int FORMAT = 1;
+    private static final RegionChange.Type[] TYPES = RegionChange.Type.values();
+    private static final RegionFlags.FlagState[] STATES = RegionFlags.FlagState.values();
+
+    private final Path file;
+    private final Logger logger;
+    private final Deque<RegionChange> entries = new ArrayDeque<>();
+
+    public ChangeJournal(Path file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    /**
+     * Reads entries left by a previous run. A record cut short by a crash is dropped.
+     */
+    public synchronized void load() throws IOException {
+        entries.clear();
+        if (!Files.isRegularFile(file)) return;
+
+        boolean damaged = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                logger.warning("Ignoring " + file.getFileName() + ": unknown format");
+                return;
+            }
+            while (true) {
+                int type = in.read();
+                if (type < 0) break;
+                try {
+                    entries.add(readChange(in, TYPES[type]));
+                } catch (EOFException | ArrayIndexOutOfBoundsException e) {
+                    damaged = true;
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            // Shorter than the header; nothing was ever appended.
+        }
+
+        if (damaged) {
+            logger.warning("Dropped an incomplete entry at the end of " + file.getFileName());
+            rewrite();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @return up to {@code max} entries from the front, without removing them
+     */
+    public synchronized List<RegionChange> peek(int max) {
+        List<RegionChange> batch = new ArrayList<>(Math.min(max, entries.size()));
+        Iterator<RegionChange> it = entries.iterator();
+        while (it.hasNext() && batch.size() < max) {
+            batch.add(it.next());
+        }
+        return batch;
+    }
+
+    public synchronized void append(List<RegionChange> changes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        boolean created = !Files.isRegularFile(file);
+        if (created) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+        }
+        for (RegionChange change : changes) {
+            writeChange(out, change);
+        }
+
+        if (created) {
+            Files.createDirectories(file.getParent());
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        entries.addAll(changes);
+    }
+
+    /**
+     * Drops the first {@code count} entries once they are stored.
+     */
+    public synchronized void remove(int count) throws IOException {
+        for (int i = 0; i < count && !entries.isEmpty(); i++) {
+            entries.removeFirst();
+        }
+        rewrite();
+    }
+
+    private void rewrite() throws IOException {
+        if (entries.isEmpty()) {
+            Files.deleteIfExists(file);
+            return;
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            for (RegionChange change : entries) {
+                writeChange(out, change);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeChange(DataOutputStream out, RegionChange change) throws IOException {
+        out.writeByte(change.type().ordinal());
+        out.writeUTF(change.regionName());
+        switch (change.type()) {
+            case DELETE -> {
+            }
+            case RENAME -> out.writeUTF(change.newName());
+            case WHITELIST_ADD, WHITELIST_REMOVE -> writeUuid(out, change.playerId());
+            case RESTORE -> {
+                StoredRegion region = change.stored();
+                out.writeUTF(region.worldName());
+                out.writeInt(region.corner1X());
+                out.writeInt(region.corner1Y());
+                out.writeInt(region.corner1Z());
+                out.writeInt(region.corner2X());
+                out.writeInt(region.corner2Y());
+                out.writeInt(region.corner2Z());
+                out.writeLong(region.createdAt());
+                out.writeInt(region.priority());
+
+                List<UUID> whitelist = new ArrayList<>(region.whitelist());
+                out.writeInt(whitelist.size());
+                for (UUID member : whitelist) {
+                    writeUuid(out, member);
+                }
+
+                out.writeInt(region.flags().size());
+                for (Map.Entry<String, RegionFlags.FlagState> flag : region.flags().entrySet()) {
+                    out.writeUTF(flag.getKey());
+                    out.writeByte(flag.getValue().ordinal());
+                }
+            }
+            default -> throw new IllegalArgumentException("Cannot journal " + change.type() + "; turn it into a restore first");
+        }
+    }
+
+    private static RegionChange readChange(DataInputStream in, RegionChange.Type type) throws IOException {
+        String name = in.readUTF();
+        return switch (type) {
+            case DELETE -> RegionChange.delete(name);
+            case RENAME -> RegionChange.rename(name, in.readUTF());
+            case WHITELIST_ADD -> RegionChange.whitelistAdd(name, readUuid(in));
+            case WHITELIST_REMOVE -> RegionChange.whitelistRemove(name, readUuid(in));
+            case RESTORE -> {
+                String worldName = in.readUTF();
+                int corner1X = in.readInt();
+                int corner1Y = in.readInt();
+                int corner1Z = in.readInt();
+                int corner2X = in.readInt();
+                int corner2Y = in.readInt();
+                int corner2Z = in.readInt();
+                long createdAt = in.readLong();
+                int priority = in.readInt();
+
+                int whitelistSize = in.readInt();
+                List<UUID> members = new ArrayList<>(whitelistSize);
+                for (int i = 0; i < whitelistSize; i++) {
+                    members.add(readUuid(in));
+                }
+
+                int flagCount = in.readInt();
+                Map<String, RegionFlags.FlagState> flags = new HashMap<>(flagCount * 2);
+                for (int i = 0; i < flagCount; i++) {
+                    flags.put(in.readUTF(), STATES[in.readByte()]);
+                }
+
+                yield RegionChange.restore(new StoredRegion(name, worldName, corner1X, corner1Y, corner1Z,
+                    corner2X, corner2Y, corner2Z, createdAt, priority, new UUIDSet(members), flags));
+            }
+            default -> throw new IOException("Unexpected " + type + " entry");
+        };
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+}
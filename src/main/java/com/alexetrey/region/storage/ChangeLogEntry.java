@@ -0,0 +1,10 @@
+package com.alexetrey.region.storage;
+
+/**
+ * One row of the shared change log. Only names are recorded; readers fetch the region's current
+ * state with {@link RegionStore#loadByNames}.
+ *
+ * @param newName the new name for a {@link RegionChange.Type#RENAME}, otherwise null
+ */
+public record ChangeLogEntry(long sequence, String nodeId, RegionChange.Type type, String regionName, String newName) {
+}
@@ -0,0 +1,104 @@
+package com.alexetrey.region.storage;
+
+import java.util.Map;
+
+/**
+ * Stops calls to a store that keeps failing to connect. After {@code failureThreshold} failures in
+ * a row it opens and callers fail at once; after {@code openMillis} one call is let through as a
+ * probe, which either closes it again or keeps it open for another round.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Told when the store becomes unavailable and when it is back; not for every probe in between.
+     */
+    public interface Listener {
+        void healthChanged(boolean available, String reason);
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Listener listener;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long openUntil;
+    private String lastFailure;
+
+    public CircuitBreaker(int failureThreshold, long openMillis, Listener listener) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * @return whether the call may go ahead; callers that get true must report how it went
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() < openUntil) return false;
+                state = State.HALF_OPEN;
+                return true;
+            default:
+                // Only the one probe runs while half open.
+                return false;
+        }
+    }
+
+    public void recordSuccess() {
+        boolean recovered;
+        synchronized (this) {
+            recovered = state != State.CLOSED;
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+        }
+        if (recovered) {
+            listener.healthChanged(true, null);
+        }
+    }
+
+    public void recordFailure(String reason) {
+        boolean opened;
+        synchronized (this) {
+            lastFailure = reason;
+            consecutiveFailures++;
+            long now = System.currentTimeMillis();
+            opened = state == State.CLOSED && consecutiveFailures >= failureThreshold;
+            if (opened) {
+                openedAt = now;
+            }
+            if (opened || state == State.HALF_OPEN) {
+                state = State.OPEN;
+                openUntil = now + openMillis;
+            }
+        }
+        if (opened) {
+            listener.healthChanged(false, reason);
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized void describe(Map<String, String> stats) {
+        if (state == State.CLOSED) {
+            stats.put("Storage", "available");
+        } else {
+            long downSeconds = (System.currentTimeMillis() - openedAt) / 1000;
+            stats.put("Storage", "unavailable for " + downSeconds + " s (" + state + ")");
+        }
+        stats.put("Consecutive storage failures", String.valueOf(consecutiveFailures));
+        if (lastFailure != null) {
+            stats.put("Last storage failure", lastFailure);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.alexetrey.region.storage;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Passes every call to another store through a {@link CircuitBreaker}, so that while the database
+ * is down callers fail at once instead of each waiting out the connection timeout.
+ */
+public class GuardedRegionStore implements RegionStore {
+    private final RegionStore delegate;
+    private final CircuitBreaker breaker;
+
+    @FunctionalInterface
+    private interface StoreCall<T> {
+        T call() throws SQLException;
+    }
+
+    public GuardedRegionStore(RegionStore delegate, CircuitBreaker breaker) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+    }
+
+    /**
+     * @return whether the error means the database could not be reached, as opposed to it rejecting the statement
+     */
+    public static boolean isUnavailable(SQLException e) {
+        if (e instanceof SQLTransientConnectionException || e instanceof SQLNonTransientConnectionException
+                || e instanceof SQLTimeoutException) {
+            return true;
+        }
+        String state = e.getSQLState();
+        return state != null && state.startsWith("08");
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    @Override
+    public void initialize() throws SQLException {
+        guard(() -> {
+            delegate.initialize();
+            return null;
+        });
+    }
+
+    @Override
+    public int loadAll(Consumer<StoredRegion> consumer) throws SQLException {
+        return guard(() -> delegate.loadAll(consumer));
+    }
+
+    @Override
+    public int streamByWorld(String worldName, Consumer<StoredRegion> consumer) throws SQLException {
+        return guard(() -> delegate.streamByWorld(worldName, consumer));
+    }
+
+    @Override
+    public List<StoredRegion> loadByNames(Collection<String> names) throws SQLException {
+        return guard(() -> delegate.loadByNames(names));
+    }
+
+    @Override
+    public void applyChanges(List<RegionChange> changes) throws SQLException {
+        guard(() -> {
+            delegate.applyChanges(changes);
+            return null;
+        });
+    }
+
+    @Override
+    public long getDataVersion() throws SQLException {
+        return guard(delegate::getDataVersion);
+    }
+
+    @Override
+    public boolean supportsChangeLog() {
+        return delegate.supportsChangeLog();
+    }
+
+    @Override
+    public String getNodeId() {
+        return delegate.getNodeId();
+    }
+
+    @Override
+    public long getLatestChangeSequence() throws SQLException {
+        return guard(delegate::getLatestChangeSequence);
+    }
+
+    @Override
+    public List<ChangeLogEntry> readChangesSince(long sequence, int limit) throws SQLException {
+        return guard(() -> delegate.readChangesSince(sequence, limit));
+    }
+
+    @Override
+    public Map<String, String> getStats() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        breaker.describe(stats);
+        stats.putAll(delegate.getStats());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private <T> T guard(StoreCall<T> call) throws SQLException {
+        if (!breaker.tryAcquire()) {
+            throw new StorageUnavailableException();
+        }
+        boolean available = false;
+        String reason = null;
+        try {
+            T result = call.call();
+            available = true;
+            return result;
+        } catch (SQLException e) {
+            // The database answered, so it is up even though the statement failed.
+            available = !isUnavailable(e);
+            reason = e.getMessage();
+            throw e;
+        } catch (RuntimeException e) {
+            available = true;
+            throw e;
+        } catch (Error e) {
+            reason = e.toString();
+            throw e;
+        } finally {
+            // Always settled, so a half-open breaker never waits forever for its trial call.
+            if (available) {
+                breaker.recordSuccess();
+            } else {
+                breaker.recordFailure(reason);
+            }
+        }
+    }
+}
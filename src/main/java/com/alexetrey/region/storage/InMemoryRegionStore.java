@@ -0,0 +1,117 @@
+package com.alexetrey.region.storage;
+
+import com.alexetrey.region.data.RegionFlags;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Keeps regions only in memory; everything is lost when the plugin stops. Meant for test servers
+ * and for measuring the manager without a database in the way.
+ */
+public class InMemoryRegionStore implements RegionStore {
+    private final Map<String, StoredRegion> regions = new LinkedHashMap<>();
+    private long dataVersion;
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public int loadAll(Consumer<StoredRegion> consumer) {
+        List<StoredRegion> loaded;
+        synchronized (this) {
+            loaded = new ArrayList<>(regions.size());
+            for (StoredRegion region : regions.values()) {
+                loaded.add(region.copy());
+            }
+        }
+        loaded.forEach(consumer);
+        return 0;
+    }
+
+    @Override
+    public int streamByWorld(String worldName, Consumer<StoredRegion> consumer) {
+        List<StoredRegion> loaded = new ArrayList<>();
+        synchronized (this) {
+            for (StoredRegion region : regions.values()) {
+                if (region.worldName().equals(worldName)) {
+                    loaded.add(region.copy());
+                }
+            }
+        }
+        loaded.forEach(consumer);
+        return 0;
+    }
+
+    @Override
+    public synchronized List<StoredRegion> loadByNames(Collection<String> names) {
+        List<StoredRegion> loaded = new ArrayList<>(names.size());
+        for (String name : names) {
+            StoredRegion region = regions.get(name);
+            if (region != null) loaded.add(region.copy());
+        }
+        return loaded;
+    }
+
+    @Override
+    public synchronized void applyChanges(List<RegionChange> changes) {
+        for (RegionChange change : changes) {
+            String name = change.regionName();
+            switch (change.type()) {
+                case CREATE -> regions.put(name, StoredRegion.of(change.region()));
+                case DELETE -> regions.remove(name);
+                case RENAME -> {
+                    StoredRegion region = regions.remove(name);
+                    if (region != null) {
+                        regions.put(change.newName(), region.withName(change.newName()));
+                    }
+                }
+                case REDEFINE -> regions.computeIfPresent(name, (key, region) -> region.withBounds(change.region()));
+                case PRIORITY -> regions.computeIfPresent(name, (key, region) -> region.withPriority(change.region().getPriority()));
+                case FLAGS -> {
+                    StoredRegion region = regions.get(name);
+                    if (region == null) continue;
+                    for (Map.Entry<RegionFlags.IFlag, RegionFlags.FlagState> entry : change.flagChanges().entrySet()) {
+                        if (entry.getValue() == null) {
+                            region.flags().remove(entry.getKey().getName());
+                        } else {
+                            region.flags().put(entry.getKey().getName(), entry.getValue());
+                        }
+                    }
+                }
+                case WHITELIST_ADD -> {
+                    StoredRegion region = regions.get(name);
+                    if (region != null) region.whitelist().add(change.playerId());
+                }
+                case WHITELIST_REMOVE -> {
+                    StoredRegion region = regions.get(name);
+                    if (region != null) region.whitelist().remove(change.playerId());
+                }
+                case RESTORE -> regions.put(name, change.stored().copy());
+            }
+        }
+        dataVersion++;
+    }
+
+    @Override
+    public synchronized long getDataVersion() {
+        return dataVersion;
+    }
+
+    @Override
+    public synchronized Map<String, String> getStats() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("Backend", "In-memory");
+        stats.put("Stored regions", String.valueOf(regions.size()));
+        return stats;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,462 @@
+package com.alexetrey.region.storage;
+
+import com.alexetrey.region.data.Region;
+import com.alexetrey.region.data.RegionFlags;
+import com.alexetrey.region.data.UUIDSet;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * SQL shared by the MySQL and SQLite stores. Subclasses set up the connection pool and supply the
+ * few statements whose syntax differs between the two.
+ */
+public abstract class JdbcRegionStore implements RegionStore {
+    private static final long PRUNE_INTERVAL_MILLIS = 60 * 60 * 1000L;
+    private static final int NAMES_PER_QUERY = 500;
+
+    protected final Logger logger;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final long changeRetentionMillis;
+    // Statements opened by prepareWrite during the current batch; writes are never concurrent.
+    private final List<PreparedStatement> batchStatements = new ArrayList<>();
+    private long lastPrune;
+
+    /**
+     * @param changeRetentionMillis how long change log entries are kept for servers that fall behind
+     */
+    protected JdbcRegionStore(Logger logger, long changeRetentionMillis) {
+        this.logger = logger;
+        this.changeRetentionMillis = changeRetentionMillis;
+    }
+
+    /**
+     * @return a connection for reads; the caller closes it
+     */
+    protected abstract Connection getReadConnection() throws SQLException;
+
+    protected abstract Connection acquireWriteConnection() throws SQLException;
+
+    protected void releaseWriteConnection(Connection conn) throws SQLException {
+        conn.close();
+    }
+
+    /**
+     * Prepares a statement for the current write batch. By default it is closed when the batch ends;
+     * stores that keep one writer connection can return a cached statement instead.
+     */
+    protected PreparedStatement prepareWrite(Connection conn, String sql) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        batchStatements.add(stmt);
+        return stmt;
+    }
+
+    /**
+     * @return the statement prefix that inserts a row unless its key already exists
+     */
+    protected abstract String insertIgnore();
+
+    /**
+     * @return the clause appended to a region_flags insert that overwrites flag_state, bound as the last parameter
+     */
+    protected abstract String upsertFlagState();
+
+    /**
+     * @return the fetch size that makes the driver stream large result sets instead of buffering them
+     */
+    protected abstract int streamingFetchSize();
+
+    protected abstract SchemaMigrator createMigrator();
+
+    @Override
+    public void initialize() throws SQLException {
+        Connection conn = acquireWriteConnection();
+        try {
+            createMigrator().migrate(conn);
+        } finally {
+            releaseWriteConnection(conn);
+        }
+    }
+
+    @Override
+    public int loadAll(Consumer<StoredRegion> consumer) throws SQLException {
+        return load("", List.of(), consumer);
+    }
+
+    @Override
+    public int streamByWorld(String worldName, Consumer<StoredRegion> consumer) throws SQLException {
+        return load(" WHERE r.world = ?", List.of(worldName), consumer);
+    }
+
+    @Override
+    public List<StoredRegion> loadByNames(Collection<String> names) throws SQLException {
+        List<StoredRegion> loaded = new ArrayList<>();
+        List<String> all = new ArrayList<>(names);
+        for (int start = 0; start < all.size(); start += NAMES_PER_QUERY) {
+            List<String> chunk = all.subList(start, Math.min(start + NAMES_PER_QUERY, all.size()));
+            load(" WHERE r.name IN (" + "?, ".repeat(chunk.size() - 1) + "?)", chunk, loaded::add);
+        }
+        return loaded;
+    }
+
+    @Override
+    public void applyChanges(List<RegionChange> changes) throws SQLException {
+        Connection conn = acquireWriteConnection();
+        try {
+            conn.setAutoCommit(false);
+            try {
+                // First, so the row lock orders whole batches across servers and change log
+                // sequence numbers are committed in the order they were handed out.
+                bumpDataVersion(conn);
+                for (RegionChange change : changes) {
+                    switch (change.type()) {
+                        case CREATE -> insertRegion(conn, change.region());
+                        case DELETE -> deleteRegion(conn, change.regionName());
+                        case RENAME -> renameRegion(conn, change.regionName(), change.newName());
+                        case REDEFINE -> updateBounds(conn, change.region());
+                        case PRIORITY -> updatePriority(conn, change.region());
+                        case FLAGS -> saveFlags(conn, change.regionName(), change.flagChanges());
+                        case WHITELIST_ADD -> insertWhitelist(conn, change.regionName(), change.playerId());
+                        case WHITELIST_REMOVE -> deleteWhitelist(conn, change.regionName(), change.playerId());
+                        case RESTORE -> restoreRegion(conn, change.stored());
+                    }
+                }
+                logChanges(conn, changes);
+                pruneChangeLog(conn);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } finally {
+            closeBatchStatements();
+            releaseWriteConnection(conn);
+        }
+    }
+
+    @Override
+    public long getDataVersion() throws SQLException {
+        try (Connection conn = getReadConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version FROM data_version")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    @Override
+    public boolean supportsChangeLog() {
+        return true;
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public long getLatestChangeSequence() throws SQLException {
+        try (Connection conn = getReadConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(seq) FROM region_changes")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    @Override
+    public List<ChangeLogEntry> readChangesSince(long sequence, int limit) throws SQLException {
+        List<ChangeLogEntry> entries = new ArrayList<>();
+        try (Connection conn = getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                 "SELECT seq, node_id, change_type, region_name, new_name FROM region_changes WHERE seq > ? ORDER BY seq LIMIT ?")) {
+            stmt.setLong(1, sequence);
+            stmt.setInt(2, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    entries.add(new ChangeLogEntry(rs.getLong(1), rs.getString(2),
+                        RegionChange.Type.valueOf(rs.getString(3)), rs.getString(4), rs.getString(5)));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads regions, then their whitelists and flags, as three streamed queries ordered by region.
+     *
+     * @param filter a WHERE clause on {@code r}, or empty for all regions
+     * @return the number of queries issued
+     */
+    private int load(String filter, List<String> params, Consumer<StoredRegion> consumer) throws SQLException {
+        Map<String, StoredRegion> loaded = new LinkedHashMap<>();
+        int queries = 0;
+
+        try (Connection conn = getReadConnection()) {
+            try (PreparedStatement stmt = prepareStreaming(conn,
+                    "SELECT r.name, r.world, r.corner1_x, r.corner1_y, r.corner1_z, r.corner2_x, r.corner2_y, r.corner2_z, r.created_at, r.priority FROM regions r" + filter, params);
+                 ResultSet rs = stmt.executeQuery()) {
+                queries++;
+                while (rs.next()) {
+                    String name = rs.getString(1);
+                    loaded.put(name, new StoredRegion(name, rs.getString(2),
+                        rs.getInt(3), rs.getInt(4), rs.getInt(5), rs.getInt(6), rs.getInt(7), rs.getInt(8),
+                        rs.getLong(9), rs.getInt(10), new UUIDSet(), new HashMap<>()));
+                }
+            }
+
+            try (PreparedStatement stmt = prepareStreaming(conn,
+                    "SELECT r.name, w.player_uuid FROM region_whitelist w JOIN regions r ON r.region_id = w.region_id" + filter + " ORDER BY w.region_id", params);
+                 ResultSet rs = stmt.executeQuery()) {
+                queries++;
+                String current = null;
+                List<UUID> members = new ArrayList<>();
+                while (rs.next()) {
+                    String regionName = rs.getString(1);
+                    if (!regionName.equals(current)) {
+                        addWhitelist(loaded.get(current), members);
+                        current = regionName;
+                    }
+                    members.add(SchemaMigrator.fromBytes(rs.getBytes(2)));
+                }
+                addWhitelist(loaded.get(current), members);
+            }
+
+            try (PreparedStatement stmt = prepareStreaming(conn,
+                    "SELECT r.name, f.flag_name, f.flag_state FROM region_flags f JOIN regions r ON r.region_id = f.region_id" + filter + " ORDER BY f.region_id", params);
+                 ResultSet rs = stmt.executeQuery()) {
+                queries++;
+                String current = null;
+                StoredRegion region = null;
+                while (rs.next()) {
+                    String regionName = rs.getString(1);
+                    if (!regionName.equals(current)) {
+                        current = regionName;
+                        region = loaded.get(regionName);
+                    }
+                    if (region != null) {
+                        region.flags().put(rs.getString(2), RegionFlags.FlagState.valueOf(rs.getString(3)));
+                    }
+                }
+            }
+        }
+
+        loaded.values().forEach(consumer);
+        return queries;
+    }
+
+    private void closeBatchStatements() {
+        for (PreparedStatement stmt : batchStatements) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                logger.warning("Failed to close statement: " + e.getMessage());
+            }
+        }
+        batchStatements.clear();
+    }
+
+    private static void addWhitelist(StoredRegion region, List<UUID> members) {
+        if (region != null && !members.isEmpty()) {
+            region.whitelist().addAll(members);
+        }
+        members.clear();
+    }
+
+    private PreparedStatement prepareStreaming(Connection conn, String sql, List<String> params) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(streamingFetchSize());
+        for (int i = 0; i < params.size(); i++) {
+            stmt.setString(i + 1, params.get(i));
+        }
+        return stmt;
+    }
+
+    private void bumpDataVersion(Connection conn) throws SQLException {
+        prepareWrite(conn, "UPDATE data_version SET version = version + 1").executeUpdate();
+    }
+
+    private void logChanges(Connection conn, List<RegionChange> changes) throws SQLException {
+        PreparedStatement stmt = prepareWrite(conn,
+            "INSERT INTO region_changes (node_id, change_type, region_name, new_name, created_at) VALUES (?, ?, ?, ?, ?)");
+        long now = System.currentTimeMillis();
+        for (RegionChange change : changes) {
+            stmt.setString(1, nodeId);
+            stmt.setString(2, change.type().name());
+            stmt.setString(3, change.regionName());
+            stmt.setString(4, change.newName());
+            stmt.setLong(5, now);
+            stmt.addBatch();
+        }
+        stmt.executeBatch();
+    }
+
+    // Runs with the write batch rather than on its own, so it never competes with it for the writer.
+    private void pruneChangeLog(Connection conn) throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now - lastPrune < PRUNE_INTERVAL_MILLIS) return;
+        lastPrune = now;
+
+        PreparedStatement stmt = prepareWrite(conn, "DELETE FROM region_changes WHERE created_at < ?");
+        stmt.setLong(1, now - changeRetentionMillis);
+        stmt.executeUpdate();
+    }
+
+    private void insertRegion(Connection conn, Region region) throws SQLException {
+        insertRow(conn, region.getName(), region.getWorldName(),
+            new int[] {region.getCorner1X(), region.getCorner1Y(), region.getCorner1Z(), region.getCorner2X(), region.getCorner2Y(), region.getCorner2Z()},
+            region.getCreatedAt(), region.getPriority());
+
+        saveFlags(conn, region.getName(), region.getFlags().getOverrides());
+    }
+
+    private void insertRow(Connection conn, String name, String world, int[] corners, long createdAt, int priority) throws SQLException {
+        PreparedStatement stmt = prepareWrite(conn,
+            "INSERT INTO regions (name, world, corner1_x, corner1_y, corner1_z, corner2_x, corner2_y, corner2_z, created_at, priority) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        stmt.setString(1, name);
+        stmt.setString(2, world);
+        for (int i = 0; i < corners.length; i++) {
+            stmt.setInt(3 + i, corners[i]);
+        }
+        stmt.setLong(9, createdAt);
+        stmt.setInt(10, priority);
+        stmt.executeUpdate();
+    }
+
+    /**
+     * Makes the stored region exactly match {@code region}, creating it if it does not exist.
+     */
+    private void restoreRegion(Connection conn, StoredRegion region) throws SQLException {
+        int[] corners = {region.corner1X(), region.corner1Y(), region.corner1Z(), region.corner2X(), region.corner2Y(), region.corner2Z()};
+        PreparedStatement update = prepareWrite(conn,
+            "UPDATE regions SET world = ?, corner1_x = ?, corner1_y = ?, corner1_z = ?, corner2_x = ?, corner2_y = ?, corner2_z = ?, created_at = ?, priority = ? WHERE name = ?");
+        update.setString(1, region.worldName());
+        for (int i = 0; i < corners.length; i++) {
+            update.setInt(2 + i, corners[i]);
+        }
+        update.setLong(8, region.createdAt());
+        update.setInt(9, region.priority());
+        update.setString(10, region.name());
+        if (update.executeUpdate() == 0) {
+            insertRow(conn, region.name(), region.worldName(), corners, region.createdAt(), region.priority());
+        }
+
+        PreparedStatement clearWhitelist = prepareWrite(conn, "DELETE FROM region_whitelist WHERE region_id = (SELECT region_id FROM regions WHERE name = ?)");
+        clearWhitelist.setString(1, region.name());
+        clearWhitelist.executeUpdate();
+        if (!region.whitelist().isEmpty()) {
+            PreparedStatement insert = prepareWrite(conn, "INSERT INTO region_whitelist (region_id, player_uuid) SELECT region_id, ? FROM regions WHERE name = ?");
+            for (UUID member : region.whitelist()) {
+                insert.setBytes(1, SchemaMigrator.toBytes(member));
+                insert.setString(2, region.name());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+
+        PreparedStatement clearFlags = prepareWrite(conn, "DELETE FROM region_flags WHERE region_id = (SELECT region_id FROM regions WHERE name = ?)");
+        clearFlags.setString(1, region.name());
+        clearFlags.executeUpdate();
+        if (!region.flags().isEmpty()) {
+            PreparedStatement insert = prepareWrite(conn, "INSERT INTO region_flags (region_id, flag_name, flag_state) SELECT region_id, ?, ? FROM regions WHERE name = ?");
+            for (Map.Entry<String, RegionFlags.FlagState> flag : region.flags().entrySet()) {
+                insert.setString(1, flag.getKey());
+                insert.setString(2, flag.getValue().name());
+                insert.setString(3, region.name());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private void deleteRegion(Connection conn, String name) throws SQLException {
+        PreparedStatement stmt = prepareWrite(conn, "DELETE FROM regions WHERE name = ?");
+        stmt.setString(1, name);
+        stmt.executeUpdate();
+    }
+
+    private void insertWhitelist(Connection conn, String regionName, UUID playerId) throws SQLException {
+        PreparedStatement stmt = prepareWrite(conn, insertIgnore() + " INTO region_whitelist (region_id, player_uuid) SELECT region_id, ? FROM regions WHERE name = ?");
+        stmt.setBytes(1, SchemaMigrator.toBytes(playerId));
+        stmt.setString(2, regionName);
+        stmt.executeUpdate();
+    }
+
+    private void deleteWhitelist(Connection conn, String regionName, UUID playerId) throws SQLException {
+        PreparedStatement stmt = prepareWrite(conn, "DELETE FROM region_whitelist WHERE region_id = (SELECT region_id FROM regions WHERE name = ?) AND player_uuid = ?");
+        stmt.setString(1, regionName);
+        stmt.setBytes(2, SchemaMigrator.toBytes(playerId));
+        stmt.executeUpdate();
+    }
+
+    /**
+     * Upserts changed flags and deletes removed ones (null state) as two batches; runs inside the caller's transaction.
+     */
+    private void saveFlags(Connection conn, String regionName, Map<RegionFlags.IFlag, RegionFlags.FlagState> changes) throws SQLException {
+        if (changes.isEmpty()) return;
+
+        PreparedStatement upsertStmt = prepareWrite(conn,
+            "INSERT INTO region_flags (region_id, flag_name, flag_state) SELECT region_id, ?, ? FROM regions WHERE name = ?" + upsertFlagState());
+        PreparedStatement deleteStmt = prepareWrite(conn,
+            "DELETE FROM region_flags WHERE region_id = (SELECT region_id FROM regions WHERE name = ?) AND flag_name = ?");
+
+        boolean upserts = false;
+        boolean deletes = false;
+        for (Map.Entry<RegionFlags.IFlag, RegionFlags.FlagState> entry : changes.entrySet()) {
+            if (entry.getValue() == null) {
+                deleteStmt.setString(1, regionName);
+                deleteStmt.setString(2, entry.getKey().getName());
+                deleteStmt.addBatch();
+                deletes = true;
+            } else {
+                upsertStmt.setString(1, entry.getKey().getName());
+                upsertStmt.setString(2, entry.getValue().name());
+                upsertStmt.setString(3, regionName);
+                upsertStmt.setString(4, entry.getValue().name());
+                upsertStmt.addBatch();
+                upserts = true;
+            }
+        }
+        if (deletes) deleteStmt.executeBatch();
+        if (upserts) upsertStmt.executeBatch();
+    }
+
+    private void renameRegion(Connection conn, String oldName, String newName) throws SQLException {
+        PreparedStatement stmt = prepareWrite(conn, "UPDATE regions SET name = ? WHERE name = ?");
+        stmt.setString(1, newName);
+        stmt.setString(2, oldName);
+        stmt.executeUpdate();
+    }
+
+    private void updateBounds(Connection conn, Region region) throws SQLException {
+        PreparedStatement stmt = prepareWrite(conn,
+            "UPDATE regions SET corner1_x = ?, corner1_y = ?, corner1_z = ?, corner2_x = ?, corner2_y = ?, corner2_z = ? WHERE name = ?");
+        stmt.setInt(1, region.getCorner1X());
+        stmt.setInt(2, region.getCorner1Y());
+        stmt.setInt(3, region.getCorner1Z());
+        stmt.setInt(4, region.getCorner2X());
+        stmt.setInt(5, region.getCorner2Y());
+        stmt.setInt(6, region.getCorner2Z());
+        stmt.setString(7, region.getName());
+        stmt.executeUpdate();
+    }
+
+    private void updatePriority(Connection conn, Region region) throws SQLException {
+        PreparedStatement stmt = prepareWrite(conn, "UPDATE regions SET priority = ? WHERE name = ?");
+        stmt.setInt(1, region.getPriority());
+        stmt.setString(2, region.getName());
+        stmt.executeUpdate();
+    }
+}
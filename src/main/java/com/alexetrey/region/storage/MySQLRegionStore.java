@@ -0,0 +1,110 @@
+package com.alexetrey.region.storage;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+public class MySQLRegionStore extends JdbcRegionStore {
+    private final PoolMetrics metrics = new PoolMetrics();
+    private final HikariDataSource dataSource;
+
+    public MySQLRegionStore(FileConfiguration config, Logger logger) {
+        super(logger, config.getLong("sync.retention-hours", 24) * 60 * 60 * 1000L);
+        this.dataSource = createDataSource(config, logger, metrics);
+    }
+
+    private static HikariDataSource createDataSource(FileConfiguration config, Logger logger, PoolMetrics metrics) {
+        String host = config.getString("mysql.host", "localhost");
+        int port = config.getInt("mysql.port", 3306);
+        String database = config.getString("mysql.database", "regions");
+        String user = config.getString("mysql.user", "root");
+        String password = config.getString("mysql.password", "");
+
+        logger.info("Attempting to connect to MySQL database:");
+        logger.info("  Host: " + host);
+        logger.info("  Port: " + port);
+        logger.info("  Database: " + database);
+        logger.info("  User: " + user);
+
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + database + "?useSSL=false&autoReconnect=true");
+        hikariConfig.setUsername(user);
+        hikariConfig.setPassword(password);
+        hikariConfig.setMaximumPoolSize(config.getInt("mysql.pool.max-connections", 10));
+        hikariConfig.setMinimumIdle(config.getInt("mysql.pool.min-idle", 2));
+        hikariConfig.setConnectionTimeout(config.getLong("mysql.pool.connection-timeout", 5000));
+        hikariConfig.setIdleTimeout(config.getLong("mysql.pool.idle-timeout", 600000));
+        hikariConfig.setMaxLifetime(config.getLong("mysql.pool.max-lifetime", 1800000));
+        hikariConfig.setPoolName("RegionHikariCP");
+        // Start even while MySQL is down; reads and writes then fail into the circuit breaker
+        // until it is back, instead of the plugin failing to enable.
+        hikariConfig.setInitializationFailTimeout(-1);
+        hikariConfig.setMetricsTrackerFactory(metrics);
+
+        // Reuse parsed statements on both sides and send batches as multi-row statements.
+        hikariConfig.addDataSourceProperty("cachePrepStmts", "true");
+        hikariConfig.addDataSourceProperty("prepStmtCacheSize", "250");
+        hikariConfig.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        hikariConfig.addDataSourceProperty("useServerPrepStmts", "true");
+        hikariConfig.addDataSourceProperty("rewriteBatchedStatements", "true");
+
+        try {
+            return new HikariDataSource(hikariConfig);
+        } catch (Exception e) {
+            logger.severe("Failed to initialize MySQL connection pool!");
+            logger.severe("Host: " + host + ", Port: " + port + ", Database: " + database + ", User: " + user);
+            logger.severe("Error: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    protected Connection getReadConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    @Override
+    protected Connection acquireWriteConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    @Override
+    public Map<String, String> getStats() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("Backend", "MySQL");
+        metrics.describe("Pool", stats);
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        dataSource.close();
+    }
+
+    @Override
+    protected String insertIgnore() {
+        return "INSERT IGNORE";
+    }
+
+    @Override
+    protected String upsertFlagState() {
+        return " ON DUPLICATE KEY UPDATE flag_state = ?";
+    }
+
+    @Override
+    protected int streamingFetchSize() {
+        // Connector/J only streams rows one at a time when asked for this exact value.
+        return Integer.MIN_VALUE;
+    }
+
+    @Override
+    protected SchemaMigrator createMigrator() {
+        return new SchemaMigrator(true, logger);
+    }
+}
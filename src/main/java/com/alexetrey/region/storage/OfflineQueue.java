@@ -0,0 +1,139 @@
+package com.alexetrey.region.storage;
+
+import com.alexetrey.region.data.Region;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * The {@link WriteBehindQueue.Writer} in front of the store. Batches that fail because the store
+ * cannot be reached go to a {@link ChangeJournal} on disk instead, and every later batch queues
+ * behind them until {@link #replay} has stored them in order. Writing and replaying only happen
+ * on the writer thread.
+ */
+public class OfflineQueue implements WriteBehindQueue.Writer {
+    private static final int REPLAY_BATCH_SIZE = 200;
+
+    private final RegionStore store;
+    private final ChangeJournal journal;
+    private final int capacity;
+    private final Logger logger;
+
+    public OfflineQueue(RegionStore store, ChangeJournal journal, int capacity, Logger logger) {
+        this.store = store;
+        this.journal = journal;
+        this.capacity = capacity;
+        this.logger = logger;
+    }
+
+    @Override
+    public void write(List<RegionChange> changes) throws Exception {
+        if (!journal.isEmpty() && !replay()) {
+            spill(changes);
+            return;
+        }
+
+        try {
+            store.applyChanges(changes);
+        } catch (SQLException e) {
+            if (!GuardedRegionStore.isUnavailable(e)) throw e;
+            spill(changes);
+        }
+    }
+
+    /**
+     * Stores the queued changes, oldest first. With nothing queued it just checks that the store
+     * can be reached.
+     *
+     * @return whether the queue is empty and the store reachable
+     */
+    public boolean replay() {
+        if (journal.isEmpty()) {
+            try {
+                store.getDataVersion();
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        int replayed = 0;
+        try {
+            while (!journal.isEmpty()) {
+                List<RegionChange> batch = journal.peek(REPLAY_BATCH_SIZE);
+                int stored = applyInOrder(batch);
+                if (stored > 0) {
+                    journal.remove(stored);
+                    replayed += stored;
+                }
+                if (stored < batch.size()) return false;
+            }
+        } catch (IOException e) {
+            logger.severe("Failed to update offline queue: " + e.getMessage());
+            return false;
+        }
+
+        logger.info("Stored " + replayed + " queued region changes");
+        return true;
+    }
+
+    public int size() {
+        return journal.size();
+    }
+
+    public boolean isEmpty() {
+        return journal.isEmpty();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return how many changes from the front of {@code batch} were stored or dropped as invalid;
+     *         fewer than all of them if the store went away
+     */
+    private int applyInOrder(List<RegionChange> batch) {
+        try {
+            store.applyChanges(batch);
+            return batch.size();
+        } catch (SQLException e) {
+            if (GuardedRegionStore.isUnavailable(e)) return 0;
+        }
+
+        // Something in the batch is rejected; find it so the rest can still be stored.
+        for (int i = 0; i < batch.size(); i++) {
+            RegionChange change = batch.get(i);
+            try {
+                store.applyChanges(List.of(change));
+            } catch (SQLException e) {
+                if (GuardedRegionStore.isUnavailable(e)) return i;
+                logger.severe("Dropping queued " + change.type() + " of region " + change.regionName() + ": " + e.getMessage());
+            }
+        }
+        return batch.size();
+    }
+
+    private void spill(List<RegionChange> changes) throws IOException {
+        if (journal.size() + changes.size() > capacity) {
+            throw new IOException("Offline queue is full (" + capacity + " changes)");
+        }
+
+        List<RegionChange> durable = new ArrayList<>(changes.size());
+        for (RegionChange change : changes) {
+            durable.add(toDurable(change));
+        }
+        journal.append(durable);
+    }
+
+    /**
+     * Changes that carry a region are written out as the full state of that snapshot.
+     */
+    private static RegionChange toDurable(RegionChange change) {
+        Region region = change.region();
+        return region == null ? change : RegionChange.restore(StoredRegion.of(region));
+    }
+}
@@ -0,0 +1,54 @@
+package com.alexetrey.region.storage;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects Hikari's per-connection callbacks for one pool, so {@code /region stats} can show how
+ * busy it is and how long callers wait for a connection.
+ */
+public class PoolMetrics implements MetricsTrackerFactory, IMetricsTracker {
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final LongAccumulator maxAcquireNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder timeouts = new LongAdder();
+    private volatile PoolStats poolStats;
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+        return this;
+    }
+
+    @Override
+    public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+        acquired.increment();
+        acquireNanos.add(elapsedAcquiredNanos);
+        maxAcquireNanos.accumulate(elapsedAcquiredNanos);
+    }
+
+    @Override
+    public void recordConnectionTimeout() {
+        timeouts.increment();
+    }
+
+    public void describe(String pool, Map<String, String> stats) {
+        PoolStats current = poolStats;
+        if (current != null) {
+            stats.put(pool + " connections", current.getActiveConnections() + " active, " + current.getIdleConnections() + " idle, "
+                + current.getTotalConnections() + "/" + current.getMaxConnections() + " open");
+            stats.put(pool + " waiting", String.valueOf(current.getPendingThreads()));
+        }
+
+        long count = acquired.sum();
+        double averageMillis = count == 0 ? 0 : acquireNanos.sum() / (double) count / 1_000_000;
+        stats.put(pool + " acquire", String.format("%.2f ms avg, %.2f ms max over %d", averageMillis,
+            maxAcquireNanos.get() / 1_000_000.0, count));
+        stats.put(pool + " timeouts", String.valueOf(timeouts.sum()));
+    }
+}
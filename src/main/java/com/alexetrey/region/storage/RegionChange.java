@@ -0,0 +1,92 @@
+package com.alexetrey.region.storage;
+
+import com.alexetrey.region.data.Region;
+import com.alexetrey.region.data.RegionFlags;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * One pending change to the stored region set. Changes that overwrite state (bounds, priority,
+ * flags, a single whitelist entry) carry a coalesce key, so a newer change to the same thing can
+ * replace one still waiting to be written. Create, delete and rename carry none and act as barriers.
+ * A restore carries the region's full state as values instead of a live region; it is what queued
+ * changes become when they have to wait on disk for the store to come back.
+ * <p>
+ * The region carried is the immutable snapshot the change produced. A flags change also carries
+ * which overrides changed, a null state meaning the override was removed.
+ */
+public record RegionChange(Type type, String regionName, Region region, StoredRegion stored, String newName, UUID playerId,
+                           Map<RegionFlags.IFlag, RegionFlags.FlagState> flagChanges) {
+
+    public enum Type {
+        CREATE,
+        DELETE,
+        RENAME,
+        REDEFINE,
+        PRIORITY,
+        FLAGS,
+        WHITELIST_ADD,
+        WHITELIST_REMOVE,
+        RESTORE
+    }
+
+    public static RegionChange create(Region region) {
+        return new RegionChange(Type.CREATE, region.getName(), region, null, null, null, null);
+    }
+
+    public static RegionChange delete(String regionName) {
+        return new RegionChange(Type.DELETE, regionName, null, null, null, null, null);
+    }
+
+    public static RegionChange rename(String oldName, String newName) {
+        return new RegionChange(Type.RENAME, oldName, null, null, newName, null, null);
+    }
+
+    public static RegionChange redefine(Region region) {
+        return new RegionChange(Type.REDEFINE, region.getName(), region, null, null, null, null);
+    }
+
+    public static RegionChange priority(Region region) {
+        return new RegionChange(Type.PRIORITY, region.getName(), region, null, null, null, null);
+    }
+
+    public static RegionChange flags(Region region, Map<RegionFlags.IFlag, RegionFlags.FlagState> flagChanges) {
+        return new RegionChange(Type.FLAGS, region.getName(), region, null, null, null, flagChanges);
+    }
+
+    public static RegionChange whitelistAdd(String regionName, UUID playerId) {
+        return new RegionChange(Type.WHITELIST_ADD, regionName, null, null, null, playerId, null);
+    }
+
+    public static RegionChange whitelistRemove(String regionName, UUID playerId) {
+        return new RegionChange(Type.WHITELIST_REMOVE, regionName, null, null, null, playerId, null);
+    }
+
+    public static RegionChange restore(StoredRegion stored) {
+        return new RegionChange(Type.RESTORE, stored.name(), null, stored, null, null, null);
+    }
+
+    public String coalesceKey() {
+        return switch (type) {
+            case CREATE, DELETE, RENAME, RESTORE -> null;
+            case REDEFINE -> "bounds:" + regionName;
+            case PRIORITY -> "priority:" + regionName;
+            case FLAGS -> "flags:" + regionName;
+            case WHITELIST_ADD, WHITELIST_REMOVE -> "whitelist:" + regionName + ":" + playerId;
+        };
+    }
+
+    /**
+     * @return this change standing in for {@code earlier}, which has the same coalesce key and
+     *         will not be written; flag changes keep whatever {@code earlier} changed as well
+     */
+    public RegionChange after(RegionChange earlier) {
+        if (type != Type.FLAGS || earlier.type != Type.FLAGS) return this;
+
+        Map<RegionFlags.IFlag, RegionFlags.FlagState> merged = new HashMap<>(earlier.flagChanges);
+        merged.putAll(flagChanges);
+        return flags(region, merged);
+    }
+}
@@ -0,0 +1,166 @@
+package com.alexetrey.region.storage;
+
+import com.alexetrey.region.data.Region;
+import com.alexetrey.region.data.RegionFlags;
+import com.alexetrey.region.data.UUIDSet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Binary copy of the stored regions, written on shutdown and read back through a memory-mapped
+ * file on startup. It is only trusted while its data version still matches the database's.
+ */
+public final class RegionSnapshot {
+    private static final int MAGIC = 0x52474E53; // "RGNS"
+    private static final int FORMAT = 1;
+    private static final RegionFlags.FlagState[] STATES = RegionFlags.FlagState.values();
+
+    private final long dataVersion;
+    private final List<StoredRegion> regions;
+    private final Map<String, String> unloadedRegions;
+
+    private RegionSnapshot(long dataVersion, List<StoredRegion> regions, Map<String, String> unloadedRegions) {
+        this.dataVersion = dataVersion;
+        this.regions = regions;
+        this.unloadedRegions = unloadedRegions;
+    }
+
+    public long getDataVersion() { return dataVersion; }
+    public List<StoredRegion> getRegions() { return regions; }
+    public Map<String, String> getUnloadedRegions() { return unloadedRegions; }
+
+    /**
+     * Writes to a temporary file first and moves it into place, so a crash never leaves half a snapshot.
+     */
+    public static void write(Path file, long dataVersion, Collection<Region> regions, Map<String, String> unloadedRegions) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(dataVersion);
+
+            out.writeInt(regions.size());
+            for (Region region : regions) {
+                writeString(out, region.getName());
+                writeString(out, region.getWorldName());
+                out.writeInt(region.getCorner1X());
+                out.writeInt(region.getCorner1Y());
+                out.writeInt(region.getCorner1Z());
+                out.writeInt(region.getCorner2X());
+                out.writeInt(region.getCorner2Y());
+                out.writeInt(region.getCorner2Z());
+                out.writeLong(region.getCreatedAt());
+                out.writeInt(region.getPriority());
+
+                List<UUID> whitelist = new ArrayList<>(region.getWhitelist());
+                out.writeInt(whitelist.size());
+                for (UUID uuid : whitelist) {
+                    out.writeLong(uuid.getMostSignificantBits());
+                    out.writeLong(uuid.getLeastSignificantBits());
+                }
+
+                Map<RegionFlags.IFlag, RegionFlags.FlagState> flags = region.getFlags().getOverrides();
+                out.writeInt(flags.size());
+                for (Map.Entry<RegionFlags.IFlag, RegionFlags.FlagState> flag : flags.entrySet()) {
+                    writeString(out, flag.getKey().getName());
+                    out.writeByte(flag.getValue().ordinal());
+                }
+            }
+
+            out.writeInt(unloadedRegions.size());
+            for (Map.Entry<String, String> entry : unloadedRegions.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the snapshot, or null if the file is missing, from another format or damaged
+     */
+    public static RegionSnapshot read(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 16 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) return null;
+
+            long dataVersion = buffer.getLong();
+
+            int regionCount = buffer.getInt();
+            List<StoredRegion> regions = new ArrayList<>(regionCount);
+            for (int i = 0; i < regionCount; i++) {
+                String name = readString(buffer);
+                String worldName = readString(buffer);
+                int corner1X = buffer.getInt();
+                int corner1Y = buffer.getInt();
+                int corner1Z = buffer.getInt();
+                int corner2X = buffer.getInt();
+                int corner2Y = buffer.getInt();
+                int corner2Z = buffer.getInt();
+                long createdAt = buffer.getLong();
+                int priority = buffer.getInt();
+
+                int whitelistSize = buffer.getInt();
+                List<UUID> members = new ArrayList<>(whitelistSize);
+                for (int j = 0; j < whitelistSize; j++) {
+                    members.add(new UUID(buffer.getLong(), buffer.getLong()));
+                }
+                UUIDSet whitelist = new UUIDSet(members);
+
+                int flagCount = buffer.getInt();
+                Map<String, RegionFlags.FlagState> flags = new HashMap<>(flagCount * 2);
+                for (int j = 0; j < flagCount; j++) {
+                    flags.put(readString(buffer), STATES[buffer.get()]);
+                }
+
+                regions.add(new StoredRegion(name, worldName, corner1X, corner1Y, corner1Z, corner2X, corner2Y, corner2Z,
+                    createdAt, priority, whitelist, flags));
+            }
+
+            int unloadedCount = buffer.getInt();
+            Map<String, String> unloadedRegions = new LinkedHashMap<>(unloadedCount * 2);
+            for (int i = 0; i < unloadedCount; i++) {
+                unloadedRegions.put(readString(buffer), readString(buffer));
+            }
+
+            return new RegionSnapshot(dataVersion, regions, unloadedRegions);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
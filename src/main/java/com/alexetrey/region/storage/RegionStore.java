@@ -0,0 +1,81 @@
+package com.alexetrey.region.storage;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Where regions are persisted. Reads happen on startup and when a world loads; writes arrive from
+ * the {@link WriteBehindQueue} in ordered batches, never concurrently.
+ */
+public interface RegionStore {
+
+    /**
+     * Creates or migrates whatever the store needs before the first read.
+     */
+    void initialize() throws SQLException;
+
+    /**
+     * @return how many queries were issued, for logging
+     */
+    int loadAll(Consumer<StoredRegion> consumer) throws SQLException;
+
+    /**
+     * @return how many queries were issued, for logging
+     */
+    int streamByWorld(String worldName, Consumer<StoredRegion> consumer) throws SQLException;
+
+    /**
+     * @return the stored regions with these names; names that no longer exist are left out
+     */
+    List<StoredRegion> loadByNames(Collection<String> names) throws SQLException;
+
+    /**
+     * Stores the changes in order, all or none.
+     */
+    void applyChanges(List<RegionChange> changes) throws SQLException;
+
+    /**
+     * @return a counter that moves on every successful {@link #applyChanges}
+     */
+    long getDataVersion() throws SQLException;
+
+    /**
+     * @return whether other servers can follow this store's writes through {@link #readChangesSince}
+     */
+    default boolean supportsChangeLog() {
+        return false;
+    }
+
+    /**
+     * @return the id this server's writes are logged under, or null without a change log
+     */
+    default String getNodeId() {
+        return null;
+    }
+
+    /**
+     * @return the sequence of the newest change log entry, or 0 if there is none
+     */
+    default long getLatestChangeSequence() throws SQLException {
+        return 0;
+    }
+
+    /**
+     * @return up to {@code limit} change log entries after {@code sequence}, oldest first
+     */
+    default List<ChangeLogEntry> readChangesSince(long sequence, int limit) throws SQLException {
+        return List.of();
+    }
+
+    /**
+     * @return labelled values for {@code /region stats}, in display order
+     */
+    default Map<String, String> getStats() {
+        return Map.of();
+    }
+
+    void close();
+}
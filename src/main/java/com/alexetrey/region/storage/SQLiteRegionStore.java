@@ -0,0 +1,179 @@
+package com.alexetrey.region.storage;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * SQLite in WAL mode, so reads never wait for a write. All writes go through one long-lived
+ * connection, which keeps its prepared statements for reuse; reads use a small pool of read-only
+ * connections. The writer is mostly used by the write-behind thread, but a schema migration can
+ * run from elsewhere, so each user holds {@code writerLock} from acquiring it until releasing it.
+ */
+public class SQLiteRegionStore extends JdbcRegionStore {
+    private static final String URL = "jdbc:sqlite:plugins/Region/regions.db";
+    private static final int FETCH_SIZE = 1000;
+    // SQLite's open flag for a read-only connection.
+    private static final String OPEN_READONLY = "1";
+
+    private final PoolMetrics readMetrics = new PoolMetrics();
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private final ReentrantLock writerLock = new ReentrantLock();
+    private final HikariDataSource readers;
+    private Connection writer;
+    // Copies of the writer's state for getStats, which must not wait for a batch to finish.
+    private volatile boolean writerOpen;
+    private volatile int cachedStatements;
+
+    public SQLiteRegionStore(FileConfiguration config, Logger logger) {
+        super(logger, config.getLong("sync.retention-hours", 24) * 60 * 60 * 1000L);
+        // The writer has to exist first: it creates the file and switches it to WAL for the readers.
+        try {
+            this.writer = openWriter();
+            this.writerOpen = true;
+        } catch (SQLException e) {
+            logger.severe("Failed to open SQLite database: " + e.getMessage());
+            throw new IllegalStateException(e);
+        }
+        this.readers = createReaders(config.getInt("sqlite.read-connections", 4), readMetrics);
+    }
+
+    private static Connection openWriter() throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty("foreign_keys", "true");
+        Connection conn = DriverManager.getConnection(URL, properties);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA journal_mode = WAL");
+            // In WAL mode NORMAL only syncs at checkpoints; a power loss can lose the last commits but never corrupts.
+            stmt.execute("PRAGMA synchronous = NORMAL");
+            stmt.execute("PRAGMA busy_timeout = 5000");
+            stmt.execute("PRAGMA cache_size = -16000");
+            stmt.execute("PRAGMA mmap_size = 268435456");
+            stmt.execute("PRAGMA temp_store = MEMORY");
+        }
+        return conn;
+    }
+
+    private static HikariDataSource createReaders(int poolSize, PoolMetrics metrics) {
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setJdbcUrl(URL);
+        hikariConfig.addDataSourceProperty("open_mode", OPEN_READONLY);
+        hikariConfig.addDataSourceProperty("busy_timeout", "5000");
+        hikariConfig.addDataSourceProperty("cache_size", "-8000");
+        hikariConfig.addDataSourceProperty("mmap_size", "268435456");
+        hikariConfig.setMaximumPoolSize(Math.max(1, poolSize));
+        hikariConfig.setPoolName("RegionHikariCP-Read");
+        hikariConfig.setMetricsTrackerFactory(metrics);
+
+        return new HikariDataSource(hikariConfig);
+    }
+
+    @Override
+    protected Connection getReadConnection() throws SQLException {
+        return readers.getConnection();
+    }
+
+    @Override
+    protected Connection acquireWriteConnection() throws SQLException {
+        writerLock.lock();
+        try {
+            if (writer == null || writer.isClosed()) {
+                statements.clear();
+                cachedStatements = 0;
+                writer = openWriter();
+                writerOpen = true;
+            }
+            return writer;
+        } catch (SQLException | RuntimeException e) {
+            writerLock.unlock();
+            throw e;
+        }
+    }
+
+    @Override
+    protected void releaseWriteConnection(Connection conn) {
+        // Kept open for the next batch.
+        writerLock.unlock();
+    }
+
+    @Override
+    protected PreparedStatement prepareWrite(Connection conn, String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt == null) {
+            stmt = conn.prepareStatement(sql);
+            statements.put(sql, stmt);
+            cachedStatements = statements.size();
+        } else {
+            // A failed batch can leave parameters or queued rows behind.
+            stmt.clearBatch();
+            stmt.clearParameters();
+        }
+        return stmt;
+    }
+
+    @Override
+    public Map<String, String> getStats() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("Backend", "SQLite (WAL)");
+        stats.put("Writer", (writerOpen ? "open" : "closed") + ", " + cachedStatements + " cached statements");
+        readMetrics.describe("Read pool", stats);
+        return stats;
+    }
+
+    /**
+     * Waits for a batch or migration still using the writer, so it is never closed under them.
+     */
+    @Override
+    public void close() {
+        readers.close();
+        writerLock.lock();
+        try {
+            for (PreparedStatement stmt : statements.values()) {
+                stmt.close();
+            }
+            statements.clear();
+            cachedStatements = 0;
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+            writerOpen = false;
+        } catch (SQLException e) {
+            logger.warning("Failed to close SQLite writer: " + e.getMessage());
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    @Override
+    protected String insertIgnore() {
+        return "INSERT OR IGNORE";
+    }
+
+    @Override
+    protected String upsertFlagState() {
+        return " ON CONFLICT (region_id, flag_name) DO UPDATE SET flag_state = ?";
+    }
+
+    @Override
+    protected int streamingFetchSize() {
+        return FETCH_SIZE;
+    }
+
+    @Override
+    protected SchemaMigrator createMigrator() {
+        return new SchemaMigrator(false, logger);
+    }
+}
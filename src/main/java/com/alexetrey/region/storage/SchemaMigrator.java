@@ -0,0 +1,324 @@
+package com.alexetrey.region.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Brings the storage schema up to {@link #CURRENT_VERSION}, one numbered migration at a time.
+ * The applied version is kept in {@code schema_version}; databases from before it existed start at 0.
+ * <p>
+ * Each migration runs in a transaction, but MySQL commits implicitly on every CREATE, DROP and
+ * ALTER, so there migrations are not transactional. Every step therefore checks what already
+ * exists, and a migration cut short by a crash or error is finished by running it again.
+ */
+public class SchemaMigrator {
+    public static final int CURRENT_VERSION = 5;
+
+    private final boolean mysql;
+    private final Logger logger;
+
+    public SchemaMigrator(boolean mysql, Logger logger) {
+        this.mysql = mysql;
+        this.logger = logger;
+    }
+
+    public void migrate(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (version INT NOT NULL)");
+        }
+
+        int version = readVersion(conn);
+        if (version > CURRENT_VERSION) {
+            throw new SQLException("Database schema version " + version + " is newer than this plugin supports (" + CURRENT_VERSION + ")");
+        }
+
+        while (version < CURRENT_VERSION) {
+            int next = version + 1;
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                switch (next) {
+                    case 1 -> createLegacyTables(conn);
+                    case 2 -> migrateToSurrogateKeys(conn);
+                    case 3 -> indexRegionWorlds(conn);
+                    case 4 -> createDataVersion(conn);
+                    case 5 -> createChangeLog(conn);
+                }
+                writeVersion(conn, next);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+            logger.info("Migrated database schema to version " + next);
+            version = next;
+        }
+    }
+
+    public static byte[] toBytes(UUID uuid) {
+        byte[] bytes = new byte[16];
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (msb >>> (56 - i * 8));
+            bytes[i + 8] = (byte) (lsb >>> (56 - i * 8));
+        }
+        return bytes;
+    }
+
+    public static UUID fromBytes(byte[] bytes) {
+        long msb = 0;
+        long lsb = 0;
+        for (int i = 0; i < 8; i++) {
+            msb = (msb << 8) | (bytes[i] & 0xFF);
+            lsb = (lsb << 8) | (bytes[i + 8] & 0xFF);
+        }
+        return new UUID(msb, lsb);
+    }
+
+    private int readVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private void writeVersion(Connection conn, int version) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DELETE FROM schema_version");
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO schema_version (version) VALUES (?)")) {
+            stmt.setInt(1, version);
+            stmt.executeUpdate();
+        }
+    }
+
+    // Version 1: the original name-keyed layout. Harmless on databases that already have it.
+    private void createLegacyTables(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS regions (
+                    name VARCHAR(64) PRIMARY KEY,
+                    world VARCHAR(64) NOT NULL,
+                    corner1_x INT NOT NULL,
+                    corner1_y INT NOT NULL,
+                    corner1_z INT NOT NULL,
+                    corner2_x INT NOT NULL,
+                    corner2_y INT NOT NULL,
+                    corner2_z INT NOT NULL,
+                    created_at BIGINT NOT NULL,
+                    priority INT NOT NULL DEFAULT 0
+                )
+            """);
+
+            addColumnIfMissing(conn, "regions", "priority", "INT NOT NULL DEFAULT 0");
+
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS region_whitelist (
+                    region_name VARCHAR(64) NOT NULL,
+                    player_uuid VARCHAR(36) NOT NULL,
+                    PRIMARY KEY (region_name, player_uuid),
+                    FOREIGN KEY (region_name) REFERENCES regions(name) ON DELETE CASCADE
+                )
+            """);
+
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS region_flags (
+                    region_name VARCHAR(64) NOT NULL,
+                    flag_name VARCHAR(32) NOT NULL,
+                    flag_state VARCHAR(16) NOT NULL,
+                    PRIMARY KEY (region_name, flag_name),
+                    FOREIGN KEY (region_name) REFERENCES regions(name) ON DELETE CASCADE
+                )
+            """);
+        }
+    }
+
+    // Version 2: integer region_id keys, 16-byte player UUIDs and an index for per-player lookups.
+    // The old tables are only dropped once everything is copied, children first, so a missing old
+    // child table means the copy in the _v2 tables is complete.
+    private void migrateToSurrogateKeys(Connection conn) throws SQLException {
+        boolean legacy = tableExists(conn, "regions") && !columnExists(conn, "regions", "region_id");
+        if (legacy && tableExists(conn, "region_whitelist") && tableExists(conn, "region_flags")) {
+            try (Statement stmt = conn.createStatement()) {
+                // Left over from an attempt that did not finish copying.
+                for (String table : new String[] {"region_flags_v2", "region_whitelist_v2", "regions_v2"}) {
+                    if (tableExists(conn, table)) {
+                        stmt.execute("DROP TABLE " + table);
+                    }
+                }
+            }
+            copyToSurrogateKeys(conn);
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            if (legacy) {
+                for (String table : new String[] {"region_flags", "region_whitelist", "regions"}) {
+                    if (tableExists(conn, table)) {
+                        stmt.execute("DROP TABLE " + table);
+                    }
+                }
+            }
+            for (String table : new String[] {"regions", "region_whitelist", "region_flags"}) {
+                if (tableExists(conn, table + "_v2") && !tableExists(conn, table)) {
+                    stmt.execute("ALTER TABLE " + table + "_v2 RENAME TO " + table);
+                }
+            }
+            if (!indexExists(conn, "region_whitelist", "idx_region_whitelist_player")) {
+                stmt.execute("CREATE INDEX idx_region_whitelist_player ON region_whitelist (player_uuid)");
+            }
+        }
+    }
+
+    private void copyToSurrogateKeys(Connection conn) throws SQLException {
+        String idColumn = mysql ? "region_id INT AUTO_INCREMENT PRIMARY KEY" : "region_id INTEGER PRIMARY KEY AUTOINCREMENT";
+        String uuidType = mysql ? "BINARY(16)" : "BLOB";
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("""
+                CREATE TABLE regions_v2 (
+                    %s,
+                    name VARCHAR(64) NOT NULL UNIQUE,
+                    world VARCHAR(64) NOT NULL,
+                    corner1_x INT NOT NULL,
+                    corner1_y INT NOT NULL,
+                    corner1_z INT NOT NULL,
+                    corner2_x INT NOT NULL,
+                    corner2_y INT NOT NULL,
+                    corner2_z INT NOT NULL,
+                    created_at BIGINT NOT NULL,
+                    priority INT NOT NULL DEFAULT 0
+                )
+            """.formatted(idColumn));
+
+            stmt.execute("""
+                CREATE TABLE region_whitelist_v2 (
+                    region_id INT NOT NULL,
+                    player_uuid %s NOT NULL,
+                    PRIMARY KEY (region_id, player_uuid),
+                    FOREIGN KEY (region_id) REFERENCES regions_v2(region_id) ON DELETE CASCADE
+                )
+            """.formatted(uuidType));
+
+            stmt.execute("""
+                CREATE TABLE region_flags_v2 (
+                    region_id INT NOT NULL,
+                    flag_name VARCHAR(32) NOT NULL,
+                    flag_state VARCHAR(16) NOT NULL,
+                    PRIMARY KEY (region_id, flag_name),
+                    FOREIGN KEY (region_id) REFERENCES regions_v2(region_id) ON DELETE CASCADE
+                )
+            """);
+
+            stmt.executeUpdate("""
+                INSERT INTO regions_v2 (name, world, corner1_x, corner1_y, corner1_z, corner2_x, corner2_y, corner2_z, created_at, priority)
+                SELECT name, world, corner1_x, corner1_y, corner1_z, corner2_x, corner2_y, corner2_z, created_at, priority FROM regions
+            """);
+
+            stmt.executeUpdate("""
+                INSERT INTO region_flags_v2 (region_id, flag_name, flag_state)
+                SELECT r.region_id, f.flag_name, f.flag_state FROM region_flags f JOIN regions_v2 r ON r.name = f.region_name
+            """);
+        }
+
+        // UUID text to bytes is done here rather than in SQL, since SQLite only gained unhex() in 3.41.
+        try (Statement select = conn.createStatement();
+             ResultSet rs = select.executeQuery("SELECT region_name, player_uuid FROM region_whitelist");
+             PreparedStatement insert = conn.prepareStatement(
+                 "INSERT INTO region_whitelist_v2 (region_id, player_uuid) SELECT region_id, ? FROM regions_v2 WHERE name = ?")) {
+
+            while (rs.next()) {
+                UUID playerId;
+                try {
+                    playerId = UUID.fromString(rs.getString(2));
+                } catch (IllegalArgumentException e) {
+                    logger.warning("Skipping invalid whitelist entry '" + rs.getString(2) + "' of region " + rs.getString(1));
+                    continue;
+                }
+                insert.setBytes(1, toBytes(playerId));
+                insert.setString(2, rs.getString(1));
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    // Version 3: regions are loaded per world as worlds load.
+    private void indexRegionWorlds(Connection conn) throws SQLException {
+        if (indexExists(conn, "regions", "idx_regions_world")) return;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE INDEX idx_regions_world ON regions (world)");
+        }
+    }
+
+    // Version 4: a counter bumped by every write, compared against the startup snapshot.
+    private void createDataVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            if (!tableExists(conn, "data_version")) {
+                stmt.execute("CREATE TABLE data_version (version BIGINT NOT NULL)");
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM data_version")) {
+                if (rs.next() && rs.getInt(1) > 0) return;
+            }
+            stmt.executeUpdate("INSERT INTO data_version (version) VALUES (0)");
+        }
+    }
+
+    // Version 5: one row per stored change, polled by other servers sharing the database.
+    private void createChangeLog(Connection conn) throws SQLException {
+        String seqColumn = mysql ? "seq BIGINT AUTO_INCREMENT PRIMARY KEY" : "seq INTEGER PRIMARY KEY AUTOINCREMENT";
+
+        try (Statement stmt = conn.createStatement()) {
+            if (!tableExists(conn, "region_changes")) {
+                stmt.execute("""
+                    CREATE TABLE region_changes (
+                        %s,
+                        node_id VARCHAR(36) NOT NULL,
+                        change_type VARCHAR(16) NOT NULL,
+                        region_name VARCHAR(64) NOT NULL,
+                        new_name VARCHAR(64),
+                        created_at BIGINT NOT NULL
+                    )
+                """.formatted(seqColumn));
+            }
+            if (!indexExists(conn, "region_changes", "idx_region_changes_created")) {
+                stmt.execute("CREATE INDEX idx_region_changes_created ON region_changes (created_at)");
+            }
+        }
+    }
+
+    private void addColumnIfMissing(Connection conn, String table, String column, String definition) throws SQLException {
+        if (columnExists(conn, table, column)) return;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        }
+    }
+
+    private static boolean tableExists(Connection conn, String table) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getTables(conn.getCatalog(), null, table, new String[] {"TABLE"})) {
+            return rs.next();
+        }
+    }
+
+    private static boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), null, table, column)) {
+            return rs.next();
+        }
+    }
+
+    private static boolean indexExists(Connection conn, String table, String index) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getIndexInfo(conn.getCatalog(), null, table, false, false)) {
+            while (rs.next()) {
+                if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,13 @@
+package com.alexetrey.region.storage;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Thrown instead of calling the store while its {@link CircuitBreaker} is open.
+ */
+public class StorageUnavailableException extends SQLTransientConnectionException {
+
+    public StorageUnavailableException() {
+        super("Storage is unavailable; not trying again yet");
+    }
+}
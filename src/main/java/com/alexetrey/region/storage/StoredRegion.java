@@ -0,0 +1,55 @@
+package com.alexetrey.region.storage;
+
+import com.alexetrey.region.data.Region;
+import com.alexetrey.region.data.RegionFlags;
+import com.alexetrey.region.data.UUIDSet;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A region as a {@link RegionStore} keeps it: plain values with the world by name, so it can be
+ * read before that world is loaded. Flags are keyed by flag name.
+ */
+public record StoredRegion(String name, String worldName,
+                           int corner1X, int corner1Y, int corner1Z,
+                           int corner2X, int corner2Y, int corner2Z,
+                           long createdAt, int priority,
+                           UUIDSet whitelist, Map<String, RegionFlags.FlagState> flags) {
+
+    public static StoredRegion of(Region region) {
+        Map<String, RegionFlags.FlagState> flags = new HashMap<>();
+        for (Map.Entry<RegionFlags.IFlag, RegionFlags.FlagState> entry : region.getFlags().getOverrides().entrySet()) {
+            flags.put(entry.getKey().getName(), entry.getValue());
+        }
+        return new StoredRegion(region.getName(), region.getWorldName(),
+            region.getCorner1X(), region.getCorner1Y(), region.getCorner1Z(),
+            region.getCorner2X(), region.getCorner2Y(), region.getCorner2Z(),
+            region.getCreatedAt(), region.getPriority(), new UUIDSet(region.getWhitelist()), flags);
+    }
+
+    public StoredRegion withName(String newName) {
+        return new StoredRegion(newName, worldName, corner1X, corner1Y, corner1Z, corner2X, corner2Y, corner2Z,
+            createdAt, priority, whitelist, flags);
+    }
+
+    public StoredRegion withBounds(Region region) {
+        return new StoredRegion(name, worldName,
+            region.getCorner1X(), region.getCorner1Y(), region.getCorner1Z(),
+            region.getCorner2X(), region.getCorner2Y(), region.getCorner2Z(),
+            createdAt, priority, whitelist, flags);
+    }
+
+    public StoredRegion withPriority(int newPriority) {
+        return new StoredRegion(name, worldName, corner1X, corner1Y, corner1Z, corner2X, corner2Y, corner2Z,
+            createdAt, newPriority, whitelist, flags);
+    }
+
+    /**
+     * @return a copy whose whitelist and flags can be changed without affecting this one
+     */
+    public StoredRegion copy() {
+        return new StoredRegion(name, worldName, corner1X, corner1Y, corner1Z, corner2X, corner2Y, corner2Z,
+            createdAt, priority, new UUIDSet(whitelist), new HashMap<>(flags));
+    }
+}
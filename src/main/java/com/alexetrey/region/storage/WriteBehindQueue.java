@@ -0,0 +1,198 @@
+package com.alexetrey.region.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+/**
+ * Persists region changes in order on a single background thread. Callers apply their change in
+ * memory first and get a future that completes once it is stored. A change that overwrites one
+ * still waiting in the queue replaces it instead of being written twice, and whatever piled up
+ * while the previous batch was being written goes to the writer as one batch.
+ */
+public class WriteBehindQueue {
+    private final Writer writer;
+    private final Logger logger;
+    private final ExecutorService executor;
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    private final Map<String, Pending> coalescable = new HashMap<>();
+    private boolean draining;
+    private long submitted;
+    private CompletableFuture<Void> lastSubmitted = CompletableFuture.completedFuture(null);
+
+    @FunctionalInterface
+    public interface Writer {
+        void write(List<RegionChange> changes) throws Exception;
+    }
+
+    public WriteBehindQueue(Writer writer, Logger logger) {
+        this.writer = writer;
+        this.logger = logger;
+        // A platform thread: the JDBC drivers block inside synchronized code and native calls,
+        // which would pin a virtual thread's carrier anyway.
+        this.executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "Region-Storage");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public synchronized CompletableFuture<Void> submit(RegionChange change) {
+        String key = change.coalesceKey();
+        Pending replaced = null;
+        if (key == null) {
+            coalescable.clear();
+        } else {
+            replaced = coalescable.get(key);
+            if (replaced != null && pending.remove(replaced)) {
+                change = change.after(replaced.change);
+            } else {
+                replaced = null;
+            }
+        }
+
+        Pending next = new Pending(change);
+        if (key != null) {
+            coalescable.put(key, next);
+        }
+        if (replaced != null) {
+            CompletableFuture<Void> superseded = replaced.future;
+            next.future.whenComplete((result, error) -> {
+                if (error != null) {
+                    superseded.completeExceptionally(error);
+                } else {
+                    superseded.complete(result);
+                }
+            });
+        }
+        pending.add(next);
+        lastSubmitted = next.future;
+        submitted++;
+
+        if (!draining) {
+            draining = true;
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                drain();
+            }
+        }
+        return next.future;
+    }
+
+    /**
+     * Runs the task on the writer thread after the batches already handed to it.
+     */
+    public void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Shutting down; whatever the task was for is retried on the next start.
+        }
+    }
+
+    /**
+     * Writes everything still queued and stops the worker; waits up to {@code timeoutSeconds}.
+     */
+    public void shutdown(long timeoutSeconds) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+                logger.severe("Timed out writing pending region changes; " + pendingCount() + " were not saved");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Blocks until everything submitted so far has been written or failed, or the timeout passes.
+     */
+    public void awaitPending(long timeoutMillis) {
+        CompletableFuture<Void> last;
+        synchronized (this) {
+            last = lastSubmitted;
+        }
+        try {
+            last.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // Failures were already logged by drain(); a timeout just means we read what is stored so far.
+        }
+    }
+
+    /**
+     * @return how many changes were ever submitted, or -1 while any of them is still being written
+     */
+    public synchronized long idleGeneration() {
+        return draining || !pending.isEmpty() ? -1 : submitted;
+    }
+
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    private void drain() {
+        while (true) {
+            List<Pending> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+                batch = new ArrayList<>(pending);
+                pending.clear();
+                coalescable.clear();
+            }
+
+            List<RegionChange> changes = new ArrayList<>(batch.size());
+            for (Pending change : batch) {
+                changes.add(change.change);
+            }
+            try {
+                writer.write(changes);
+                batch.forEach(change -> change.future.complete(null));
+            } catch (Exception e) {
+                if (batch.size() == 1) {
+                    fail(batch.get(0), e);
+                    continue;
+                }
+                // Retry one by one so a single bad change does not fail the rest of the batch.
+                for (Pending change : batch) {
+                    try {
+                        writer.write(List.of(change.change));
+                        change.future.complete(null);
+                    } catch (Exception single) {
+                        fail(change, single);
+                    }
+                }
+            }
+        }
+    }
+
+    private void fail(Pending change, Exception e) {
+        logger.severe("Failed to save " + change.change.type() + " of region " + change.change.regionName() + ": " + e.getMessage());
+        change.future.completeExceptionally(e);
+    }
+
+    private static final class Pending {
+        private final RegionChange change;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Pending(RegionChange change) {
+            this.change = change;
+        }
+    }
+}